@@ -0,0 +1,72 @@
+package com.kamruddin.modulith;
+
+import java.math.BigDecimal;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.kamruddin.modulith.inventory.Product;
+import com.kamruddin.modulith.inventory.ProductService;
+
+/**
+ * The application, booted once per trial against an in-memory H2 database (the test
+ * application.properties) with no broker: stock updates are applied by the local module
+ * listener and nothing is externalized or broadcast.
+ */
+@State(Scope.Benchmark)
+public class ApplicationState {
+
+    // Enough stock that no benchmark runs out during a trial
+    private static final int STOCK = 1_000_000_000;
+
+    public ConfigurableApplicationContext context;
+    public Long productId;
+
+    @Setup(Level.Trial)
+    public void start() {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        context = new SpringApplicationBuilder(ModulithApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(arguments());
+        productId = bean(ProductService.class)
+                .save(new Product(null, "Benchmark item", null, new BigDecimal("1.00"), STOCK, null, null, null))
+                .getId();
+    }
+
+    // Command line arguments, so they win over application.properties
+    protected String[] arguments() {
+        return new String[] {
+                "--spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID()
+                        + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "--spring.docker.compose.enabled=false",
+                "--spring.modulith.events.jdbc.schema-initialization.enabled=true",
+                "--spring.modulith.events.externalization.enabled=false",
+                "--spring.modulith.events.republish-outstanding-events-on-restart=false",
+                "--inventory.delivery.mode=local",
+                "--inventory.product-changes.broadcast=false",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--logging.level.com.kamruddin.modulith=WARN",
+                "--logging.level.org.springframework.modulith=WARN",
+                "--logging.level.org.springframework.jdbc=WARN",
+                "--logging.level.org.springframework.transaction=WARN",
+                "--logging.level.org.springframework.orm.jpa=WARN"};
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    public <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+}
@@ -0,0 +1,66 @@
+package com.kamruddin.modulith;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import com.kamruddin.modulith.config.CodecMessageConverter;
+import com.kamruddin.modulith.config.EventCodecs;
+import com.kamruddin.modulith.order.OrderPlacedEvent;
+import com.kamruddin.modulith.order.OrderPlacedEventCodec;
+
+/**
+ * Encode and decode cost of an OrderPlacedEvent AMQP message, JSON versus the binary
+ * codec, through the same converter the application uses. Bytes per event are printed
+ * once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventCodecBenchmark {
+
+    @Param({"json", "binary"})
+    private String codec;
+
+    private MessageConverter converter;
+    private OrderPlacedEvent event;
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        converter = new CodecMessageConverter(new EventCodecs(List.of(new OrderPlacedEventCodec()), codec),
+                new Jackson2JsonMessageConverter());
+        event = new OrderPlacedEvent(42L, 3, 123456789L, Instant.now());
+        message = converter.toMessage(event, new MessageProperties());
+        System.out.printf("%n%s: %d bytes per event%n", codec, message.getBody().length);
+    }
+
+    @Benchmark
+    public Message encode() {
+        return converter.toMessage(event, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object decode() {
+        return converter.fromMessage(message);
+    }
+}
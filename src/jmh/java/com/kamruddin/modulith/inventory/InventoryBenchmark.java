@@ -0,0 +1,58 @@
+package com.kamruddin.modulith.inventory;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kamruddin.modulith.ApplicationState;
+import com.kamruddin.modulith.order.OrderPlacedEvent;
+
+/**
+ * Stock update hot paths: the conditional decrement alone, and an OrderPlacedEvent
+ * applied by the listener (ledger insert plus decrement in one transaction).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InventoryBenchmark {
+
+    // Order ids that no real order uses, each event is a new order for the ledger
+    private final AtomicLong orderIds = new AtomicLong(1_000_000_000L);
+
+    private ProductService productService;
+    private InventoryEventListener listener;
+    private Long productId;
+
+    @Setup
+    public void setUp(ApplicationState application) {
+        productService = application.bean(ProductService.class);
+        listener = application.bean(InventoryEventListener.class);
+        productId = application.productId;
+    }
+
+    @Benchmark
+    public boolean updateStock() {
+        return productService.updateStock(productId, 1);
+    }
+
+    @Benchmark
+    public void processOrderPlacedEvent() {
+        listener.processOrderPlacedEvent(
+                new OrderPlacedEvent(productId, 1, orderIds.incrementAndGet(), Instant.now()),
+                InventoryEventListener.LOCAL_MODE);
+    }
+}
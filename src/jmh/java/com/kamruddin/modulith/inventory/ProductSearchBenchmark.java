@@ -0,0 +1,81 @@
+package com.kamruddin.modulith.inventory;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query latency of the product search index over generated products, names and descriptions
+ * drawn from a skewed vocabulary. Covers a frequent term, a rare term, two terms and a prefix;
+ * build time and heap held by the index are printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class ProductSearchBenchmark {
+
+    private static final int VOCABULARY = 50_000;
+
+    @Param({"1000000"})
+    private int products;
+
+    @Param({"laptop", "term49999", "wireless keyboard", "key", "term1 term2 term3"})
+    private String query;
+
+    private ProductSearchIndex index;
+
+    @Setup
+    public void setUp() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long started = System.nanoTime();
+
+        index = new ProductSearchIndex(32, 24, 50);
+        SplittableRandom random = new SplittableRandom(42);
+        List<String> common = List.of("laptop", "wireless", "mouse", "keyboard", "monitor", "cable", "usb",
+                "mechanical", "gaming", "portable", "4k", "charger");
+        for (long id = 1; id <= products; id++) {
+            String name = common.get(random.nextInt(common.size())) + " " + term(random) + " "
+                    + common.get(random.nextInt(common.size()));
+            StringBuilder description = new StringBuilder();
+            for (int i = 0; i < 12; i++) {
+                description.append(random.nextInt(4) == 0 ? common.get(random.nextInt(common.size())) : term(random))
+                        .append(' ');
+            }
+            index.put(new Product(id, name, description.toString(), BigDecimal.TEN, 100, null, null, null));
+        }
+
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("%n%d products, %d terms, %d postings, built in %d ms, ~%d MB heap%n", index.size(),
+                index.terms(), index.postings(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                (heapAfter - heapBefore) >> 20);
+    }
+
+    @Benchmark
+    public List<ProductSearchIndex.Hit> search() {
+        return index.search(query, 20);
+    }
+
+    // Zipf-like: low term numbers are far more frequent than high ones
+    private static String term(SplittableRandom random) {
+        return "term" + (int) Math.pow(VOCABULARY, random.nextDouble());
+    }
+}
@@ -0,0 +1,58 @@
+package com.kamruddin.modulith.order;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kamruddin.modulith.ApplicationState;
+
+/**
+ * Order placement: the order insert plus the event publication row, in one transaction per
+ * order or, through the batch endpoint's path, per batch. Both report per order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderServiceBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    private OrderService orderService;
+    private Long productId;
+
+    @Setup
+    public void setUp(ApplicationState application) {
+        orderService = application.bean(OrderService.class);
+        productId = application.productId;
+    }
+
+    @Benchmark
+    public Order placeOrder() {
+        return orderService.placeOrder(new Order(null, productId, 1, null, null));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<Order> placeOrders() {
+        List<Order> orders = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            orders.add(new Order(null, productId, 1, null, null));
+        }
+        return orderService.placeOrders(orders);
+    }
+}
@@ -0,0 +1,90 @@
+package com.kamruddin.modulith.order;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kamruddin.modulith.ApplicationState;
+
+/**
+ * A burst of concurrent orders in virtual-thread mode, placed from a bounded platform thread
+ * pool or from one virtual thread per order. The connection limiter queues whatever exceeds
+ * the Hikari pool, so the two differ in how callers wait, not in database concurrency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+    private static final int BURST = 1_000;
+    private static final int PLATFORM_THREADS = 64;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    private OrderService orderService;
+    private Long productId;
+    private ExecutorService executor;
+
+    @State(Scope.Benchmark)
+    public static class VirtualThreadApplicationState extends ApplicationState {
+
+        @Override
+        protected String[] arguments() {
+            String[] arguments = super.arguments();
+            String[] virtual = Arrays.copyOf(arguments, arguments.length + 1);
+            virtual[arguments.length] = "--spring.threads.virtual.enabled=true";
+            return virtual;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp(VirtualThreadApplicationState application) {
+        orderService = application.bean(OrderService.class);
+        productId = application.productId;
+        executor = "virtual".equals(threads)
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public List<Order> placeBurst() throws Exception {
+        List<Future<Order>> placing = new ArrayList<>(BURST);
+        for (int i = 0; i < BURST; i++) {
+            placing.add(executor.submit(() -> orderService.placeOrder(new Order(null, productId, 1, null, null))));
+        }
+        List<Order> placed = new ArrayList<>(BURST);
+        for (Future<Order> order : placing) {
+            placed.add(order.get());
+        }
+        return placed;
+    }
+}
@@ -0,0 +1,51 @@
+package com.kamruddin.modulith.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.qpid.server.SystemLauncher;
+
+/**
+ * In-memory AMQP 0-9-1 broker (Qpid Broker-J) standing in for RabbitMQ. It has no
+ * consistent-hash exchange, so the harness runs with the unsharded order queue.
+ */
+class EmbeddedBroker implements AutoCloseable {
+
+    static final String USERNAME = "guest";
+    static final String PASSWORD = "guest";
+
+    private final SystemLauncher launcher = new SystemLauncher();
+    private final int port;
+
+    EmbeddedBroker() throws Exception {
+        this.port = freePort();
+        Map<String, Object> context = new HashMap<>();
+        context.put("qpid.amqp_port", port);
+        context.put("qpid.work_dir", System.getProperty("java.io.tmpdir") + "/qpid-loadtest-" + port);
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("type", "Memory");
+        attributes.put("initialConfigurationLocation",
+                EmbeddedBroker.class.getClassLoader().getResource("qpid-config.json").toExternalForm());
+        attributes.put("startupLoggedToSystemOut", false);
+        attributes.put("context", context);
+        launcher.startup(attributes);
+    }
+
+    int port() {
+        return port;
+    }
+
+    @Override
+    public void close() {
+        launcher.shutdown();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
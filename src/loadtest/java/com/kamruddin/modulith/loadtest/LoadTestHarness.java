@@ -0,0 +1,229 @@
+package com.kamruddin.modulith.loadtest;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kamruddin.modulith.ModulithApplication;
+import com.kamruddin.modulith.inventory.Product;
+import com.kamruddin.modulith.inventory.ProductService;
+
+/**
+ * End-to-end load harness: POST /api/orders → event_publication → AMQP → InventoryEventListener
+ * → stock update, with an embedded AMQP broker and in-memory H2 instead of RabbitMQ and
+ * PostgreSQL.
+ * <p>
+ * Orders arrive in an open model (Poisson arrivals at a fixed rate, independent of how fast
+ * the application answers), spread over the seeded products. After the load the harness waits
+ * for the listeners to drain and reports throughput, order-to-stock latency percentiles (order
+ * insert until the ledger row of its stock update) and the consistency counts: oversold units,
+ * stock decrements without a ledger row (duplicate application) and orders never applied.
+ * <p>
+ * With loadtest.batch-size above 1 the same order rate is sent to POST /api/orders/batch, that
+ * many orders per request, so the two endpoints can be compared at equal load.
+ * <p>
+ * Settings are system properties (loadtest.rate, loadtest.duration, loadtest.products,
+ * loadtest.stock, loadtest.batch-size, loadtest.drain-timeout); program arguments are passed to
+ * the application, e.g. --orders.group-commit.enabled=true or --inventory.listener.batch.enabled=true.
+ */
+public class LoadTestHarness {
+
+    private static final String LATENCY_SQL =
+            "SELECT o.order_date, p.processed_at FROM orders o JOIN processed_order_events p ON p.order_id = o.id";
+
+    private static final String CONSISTENCY_SQL =
+            "SELECT pr.id, pr.stock_quantity, COALESCE(SUM(p.quantity), 0) AS applied "
+            + "FROM products pr LEFT JOIN processed_order_events p ON p.product_id = pr.id "
+            + "WHERE pr.id IN (%s) GROUP BY pr.id, pr.stock_quantity";
+
+    private final int rate = Integer.getInteger("loadtest.rate", 200);
+    private final Duration duration = Duration.ofSeconds(Long.getLong("loadtest.duration", 30L));
+    private final int products = Integer.getInteger("loadtest.products", 100);
+    private final int stock = Integer.getInteger("loadtest.stock", 1_000_000);
+    private final int batchSize = Integer.getInteger("loadtest.batch-size", 1);
+    private final Duration drainTimeout = Duration.ofSeconds(Long.getLong("loadtest.drain-timeout", 60L));
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+        new LoadTestHarness().run(args);
+    }
+
+    private void run(String[] applicationArgs) throws Exception {
+        try (EmbeddedBroker broker = new EmbeddedBroker();
+                ConfigurableApplicationContext context = startApplication(broker, applicationArgs)) {
+            JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+            List<Long> productIds = seedProducts(context.getBean(ProductService.class));
+            int port = Integer.parseInt(context.getEnvironment().getRequiredProperty("local.server.port"));
+
+            System.out.printf("Load: %d orders/s for %s over %d products (stock %d each), %s%n",
+                    rate, duration, products, stock,
+                    batchSize > 1 ? batchSize + " orders per batch request" : "one order per request");
+            URI uri = URI.create("http://localhost:" + port + (batchSize > 1 ? "/api/orders/batch" : "/api/orders"));
+            long loadNanos = drive(uri, productIds);
+            long drainNanos = drain(jdbc);
+            report(jdbc, productIds, loadNanos, drainNanos);
+        }
+    }
+
+    private ConfigurableApplicationContext startApplication(EmbeddedBroker broker, String[] applicationArgs) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest-" + UUID.randomUUID()
+                        + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "--spring.docker.compose.enabled=false",
+                "--spring.modulith.events.jdbc.schema-initialization.enabled=true",
+                "--spring.rabbitmq.host=localhost",
+                "--spring.rabbitmq.port=" + broker.port(),
+                "--spring.rabbitmq.username=" + EmbeddedBroker.USERNAME,
+                "--spring.rabbitmq.password=" + EmbeddedBroker.PASSWORD,
+                "--inventory.delivery.mode=distributed",
+                "--inventory.sharding.enabled=false",
+                "--inventory.product-changes.broadcast=false",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN",
+                "--logging.level.com.kamruddin.modulith=WARN",
+                "--logging.level.org.springframework.modulith=WARN",
+                "--logging.level.org.springframework.jdbc=WARN",
+                "--logging.level.org.springframework.transaction=WARN",
+                "--logging.level.org.springframework.orm.jpa=WARN",
+                "--logging.level.org.springframework.amqp=WARN",
+                "--logging.level.org.apache.qpid=WARN"));
+        // Later arguments win, so the caller can override any of the above
+        args.addAll(Arrays.asList(applicationArgs));
+        return new SpringApplicationBuilder(ModulithApplication.class).run(args.toArray(String[]::new));
+    }
+
+    private List<Long> seedProducts(ProductService productService) {
+        List<Long> ids = new ArrayList<>(products);
+        for (int i = 0; i < products; i++) {
+            ids.add(productService.save(new Product(null, "Load item " + i, null,
+                    new BigDecimal("1.00"), stock, null, null, null)).getId());
+        }
+        return ids;
+    }
+
+    // Fire requests on the arrival schedule, whether or not earlier ones have completed
+    private long drive(URI uri, List<Long> productIds) throws Exception {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient client = HttpClient.newBuilder().executor(executor).build();
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long started = System.nanoTime();
+        long end = started + duration.toNanos();
+        long next = started;
+        while (next < end) {
+            LockSupport.parkNanos(next - System.nanoTime());
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body(productIds, random)))
+                    .build();
+            inFlight.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, failure) -> {
+                        if (failure != null) {
+                            errors.addAndGet(batchSize);
+                        } else if (response.statusCode() / 100 == 2) {
+                            accepted.addAndGet(batchSize);
+                        } else {
+                            rejected.addAndGet(batchSize);
+                        }
+                        return null;
+                    }));
+            // Exponential inter-arrival times: a Poisson process at the target rate of requests
+            next += (long) (-Math.log(1 - random.nextDouble()) * TimeUnit.SECONDS.toNanos(1) * batchSize / rate);
+        }
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).get(drainTimeout.toSeconds(), TimeUnit.SECONDS);
+        executor.shutdown();
+        return System.nanoTime() - started;
+    }
+
+    // One order, or an array of batch-size orders, each for a random product
+    private String body(List<Long> productIds, ThreadLocalRandom random) {
+        StringBuilder body = new StringBuilder(batchSize > 1 ? "[" : "");
+        for (int i = 0; i < batchSize; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            Long productId = productIds.get(random.nextInt(productIds.size()));
+            body.append("{\"productId\":").append(productId).append(",\"quantity\":1}");
+        }
+        return body.append(batchSize > 1 ? "]" : "").toString();
+    }
+
+    // Wait until every accepted order has been applied, or the drain timeout passed
+    private long drain(JdbcTemplate jdbc) throws InterruptedException {
+        long started = System.nanoTime();
+        long deadline = started + drainTimeout.toNanos();
+        while (System.nanoTime() < deadline
+                && jdbc.queryForObject("SELECT COUNT(*) FROM processed_order_events", Long.class) < accepted.get()) {
+            Thread.sleep(100);
+        }
+        return System.nanoTime() - started;
+    }
+
+    private void report(JdbcTemplate jdbc, List<Long> productIds, long loadNanos, long drainNanos) {
+        long[] latencies = jdbc.query(LATENCY_SQL, (rs, rowNum) -> Duration.between(
+                        rs.getTimestamp("order_date").toInstant(), rs.getTimestamp("processed_at").toInstant()).toNanos())
+                .stream().mapToLong(Long::longValue).sorted().toArray();
+
+        long oversold = 0;
+        long duplicates = 0;
+        String ids = String.join(",", productIds.stream().map(String::valueOf).toList());
+        for (Map<String, Object> row : jdbc.queryForList(CONSISTENCY_SQL.formatted(ids))) {
+            long remaining = ((Number) row.get("stock_quantity")).longValue();
+            long applied = ((Number) row.get("applied")).longValue();
+            oversold += Math.max(0, applied - stock) + Math.max(0, -remaining);
+            // Decrements not backed by a ledger row mean an order was applied more than once
+            duplicates += Math.max(0, (stock - remaining) - applied);
+        }
+        long placed = jdbc.queryForObject("SELECT COUNT(*) FROM orders", Long.class);
+        long unapplied = placed - latencies.length;
+
+        double loadSeconds = loadNanos / 1e9;
+        System.out.println();
+        System.out.println("=== Load test result ===");
+        System.out.printf("Requests: %d accepted, %d rejected, %d failed in %.1f s (%.1f orders/s)%n",
+                accepted.get(), rejected.get(), errors.get(), loadSeconds, accepted.get() / loadSeconds);
+        System.out.printf("Applied: %d of %d orders, drained %.1f s after the load%n",
+                latencies.length, placed, drainNanos / 1e9);
+        if (latencies.length > 0) {
+            System.out.printf("Order-to-stock latency: p50 %s, p99 %s, p999 %s, max %s%n",
+                    millis(percentile(latencies, 0.50)), millis(percentile(latencies, 0.99)),
+                    millis(percentile(latencies, 0.999)), millis(latencies[latencies.length - 1]));
+        }
+        System.out.printf("Oversold units: %d, duplicate applications: %d, orders never applied: %d%n",
+                oversold, duplicates, unapplied);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,145 @@
+package com.kamruddin.modulith;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Event pipeline lag, read from event_publication on a fixed interval instead of on every
+ * metrics scrape:
+ * <ul>
+ * <li>modulith.events.completion.lag: publication-to-completion time per listener, for
+ * publications completed since the previous poll</li>
+ * <li>modulith.events.publications{state}: incomplete row count, and the completed rows as
+ * estimated by the planner statistics</li>
+ * <li>modulith.events.incomplete.oldest: age of the oldest incomplete publication</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class EventPublicationMetrics {
+
+    private static final String COMPLETED_SINCE_SQL =
+            "SELECT listener_id, publication_date, completion_date FROM event_publication "
+            + "WHERE completion_date > :since ORDER BY completion_date LIMIT :limit";
+
+    // Only reads the incomplete end of event_publication_completion_idx, not the whole table
+    private static final String INCOMPLETE_SQL =
+            "SELECT COUNT(*) AS incomplete, MIN(publication_date) AS oldest "
+            + "FROM event_publication WHERE completion_date IS NULL";
+
+    // Row estimate kept up to date by autovacuum, -1 until the table was first analyzed
+    private static final String ESTIMATED_ROWS_SQL =
+            "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass('event_publication')";
+
+    // Databases without pg_class (H2 in tests) count exactly
+    private static final String COMPLETED_SQL =
+            "SELECT COUNT(*) FROM event_publication WHERE completion_date IS NOT NULL";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int maxRowsPerPoll;
+
+    private final AtomicLong incomplete = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong oldestIncompleteMillis = new AtomicLong();
+    private volatile Instant lastCompletion = Instant.now();
+    private volatile boolean estimateRows = true;
+
+    EventPublicationMetrics(NamedParameterJdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+            @Value("${modulith.events.metrics.max-rows-per-poll:10000}") int maxRowsPerPoll) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.maxRowsPerPoll = maxRowsPerPoll;
+
+        Gauge.builder("modulith.events.publications", incomplete, AtomicLong::get)
+                .description("Rows in event_publication")
+                .tag("state", "incomplete")
+                .register(meterRegistry);
+        Gauge.builder("modulith.events.publications", completed, AtomicLong::get)
+                .description("Rows in event_publication")
+                .tag("state", "completed")
+                .register(meterRegistry);
+        TimeGauge.builder("modulith.events.incomplete.oldest", oldestIncompleteMillis, TimeUnit.MILLISECONDS,
+                        AtomicLong::get)
+                .description("Age of the oldest incomplete event publication")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${modulith.events.metrics.interval:15000}")
+    public void poll() {
+        try {
+            recordCompletionLag();
+            refreshCounts();
+        } catch (Exception e) {
+            log.warn("Could not read event publication metrics: {}", e.getMessage());
+        }
+    }
+
+    private void recordCompletionLag() {
+        jdbcTemplate.query(COMPLETED_SINCE_SQL,
+                Map.of("since", Timestamp.from(lastCompletion), "limit", maxRowsPerPoll), rs -> {
+                    Instant published = rs.getTimestamp("publication_date").toInstant();
+                    Instant completion = rs.getTimestamp("completion_date").toInstant();
+                    lag(rs.getString("listener_id")).record(Duration.between(published, completion));
+                    lastCompletion = completion;
+                });
+    }
+
+    private void refreshCounts() {
+        jdbcTemplate.query(INCOMPLETE_SQL, Map.of(), rs -> {
+            incomplete.set(rs.getLong("incomplete"));
+            Timestamp oldest = rs.getTimestamp("oldest");
+            oldestIncompleteMillis.set(oldest == null ? 0
+                    : Duration.between(oldest.toInstant(), Instant.now()).toMillis());
+        });
+        completed.set(countCompleted());
+    }
+
+    private long countCompleted() {
+        if (estimateRows) {
+            try {
+                Long rows = jdbcTemplate.queryForObject(ESTIMATED_ROWS_SQL, Map.of(), Long.class);
+                return rows == null ? 0 : Math.max(0, rows - incomplete.get());
+            } catch (BadSqlGrammarException e) {
+                log.debug("No row estimate for event_publication, counting completed publications: {}",
+                        e.getMessage());
+                estimateRows = false;
+            }
+        }
+        Long rows = jdbcTemplate.queryForObject(COMPLETED_SQL, Map.of(), Long.class);
+        return rows == null ? 0 : rows;
+    }
+
+    private Timer lag(String listenerId) {
+        return Timer.builder("modulith.events.completion.lag")
+                .description("Time from event publication until its listener completed")
+                .tag("listener", listenerTag(listenerId))
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    // com.acme.inventory.SomeListener.handle(com.acme.order.SomeEvent) -> SomeListener.handle
+    static String listenerTag(String listenerId) {
+        int parameters = listenerId.indexOf('(');
+        String method = parameters < 0 ? listenerId : listenerId.substring(0, parameters);
+        int lastDot = method.lastIndexOf('.');
+        int classDot = lastDot < 0 ? -1 : method.lastIndexOf('.', lastDot - 1);
+        return method.substring(classDot + 1);
+    }
+}
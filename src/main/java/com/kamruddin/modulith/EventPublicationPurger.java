@@ -0,0 +1,110 @@
+package com.kamruddin.modulith;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the event_publication table small. Completed publications older than the
+ * retention are moved to event_publication_archive (mode=archive) or deleted
+ * (mode=delete) in chunks, each chunk in its own short transaction so the purge never
+ * holds many row locks or a long transaction next to the publishing order flow.
+ * Runs on every replica; overlapping chunks are harmless because the archive insert
+ * ignores rows that are already there.
+ */
+@Component
+@ConditionalOnProperty(name = "modulith.events.purge.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class EventPublicationPurger {
+
+    private static final String SELECT_CHUNK_SQL =
+            "SELECT id FROM event_publication WHERE completion_date < :before "
+            + "ORDER BY completion_date LIMIT :limit";
+
+    private static final String ARCHIVE_SQL =
+            "INSERT INTO event_publication_archive "
+            + "(id, publication_date, completion_date, event_type, serialized_event, listener_id) "
+            + "SELECT id, publication_date, completion_date, event_type, serialized_event, listener_id "
+            + "FROM event_publication WHERE id IN (:ids) ON CONFLICT (id) DO NOTHING";
+
+    private static final String DELETE_SQL = "DELETE FROM event_publication WHERE id IN (:ids)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean archive;
+    private final Duration retention;
+    private final int chunkSize;
+    private final Counter purged;
+
+    EventPublicationPurger(NamedParameterJdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${modulith.events.purge.mode:archive}") String mode,
+            @Value("${modulith.events.purge.retention:7d}") Duration retention,
+            @Value("${modulith.events.purge.chunk-size:500}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.archive = !"delete".equalsIgnoreCase(mode);
+        this.retention = retention;
+        this.chunkSize = chunkSize;
+        this.purged = Counter.builder("modulith.events.purged")
+                .description("Completed event publications removed from event_publication")
+                .tag("mode", archive ? "archive" : "delete")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${modulith.events.purge.interval:300000}",
+            fixedDelayString = "${modulith.events.purge.interval:300000}")
+    public void purge() {
+        try {
+            Timestamp before = Timestamp.from(Instant.now().minus(retention));
+            long total = 0;
+            int removed;
+            do {
+                removed = purgeChunk(before);
+                total += removed;
+            } while (removed == chunkSize);
+
+            if (total > 0) {
+                log.info("{} {} completed event publications older than {}",
+                        archive ? "Archived" : "Deleted", total, retention);
+            }
+        } catch (Exception e) {
+            log.warn("Event publication purge failed: {}", e.getMessage());
+        }
+    }
+
+    private int purgeChunk(Timestamp before) {
+        Integer removed = transactionTemplate.execute(status -> {
+            List<UUID> ids = jdbcTemplate.queryForList(SELECT_CHUNK_SQL,
+                    Map.of("before", before, "limit", chunkSize), UUID.class);
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            Map<String, Object> params = Map.of("ids", ids);
+            if (archive) {
+                jdbcTemplate.update(ARCHIVE_SQL, params);
+            }
+            purged.increment(jdbcTemplate.update(DELETE_SQL, params));
+            // Another replica may have deleted part of the chunk first, the loop still
+            // only stops on a short chunk
+            return ids.size();
+        });
+        return removed;
+    }
+}
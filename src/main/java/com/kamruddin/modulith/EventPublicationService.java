@@ -1,50 +1,426 @@
 package com.kamruddin.modulith;
 
+import java.sql.Timestamp;
 import java.time.Duration;
-import java.util.function.Predicate;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.springframework.modulith.events.EventPublication;
-import org.springframework.modulith.events.IncompleteEventPublications;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.context.event.ApplicationListenerMethodAdapter;
+import org.springframework.context.event.EventListener;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.modulith.events.core.EventSerializer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.util.ClassUtils;
 
-import lombok.RequiredArgsConstructor;
+import com.kamruddin.modulith.config.SchemaGate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Resubmits incomplete event publications. Instead of loading the whole backlog like
+ * {@code IncompleteEventPublications}, a run walks event_publication in pages ordered by
+ * publication date, hands each publication back to its listener from a small thread pool
+ * at a configurable rate, and pauses while the task executor or the order queues are
+ * behind. A run blocks its caller; the resubmission actuator endpoint starts runs in the
+ * background and reports their progress.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class EventPublicationService {
 
-    private final IncompleteEventPublications incompleteEventPublications;
+    private static final String PAGE_SQL =
+            "SELECT id, publication_date, event_type, serialized_event, listener_id FROM event_publication "
+            + "WHERE completion_date IS NULL AND publication_date < :before";
+    private static final String AFTER_CURSOR =
+            " AND (publication_date > :afterDate OR (publication_date = :afterDate AND id > :afterId))";
+    private static final String PAGE_ORDER = " ORDER BY publication_date, id LIMIT :limit";
+
+    private static final String BACKLOG_SQL =
+            "SELECT COUNT(*) FROM event_publication WHERE completion_date IS NULL AND publication_date < :before";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final EventSerializer eventSerializer;
+    private final ApplicationContext applicationContext;
+    private final ObjectProvider<Executor> taskExecutor;
+    private final ObjectProvider<AmqpAdmin> amqpAdmin;
+    private final SchemaGate schemaGate;
+    private final Counter resubmitted;
+    private final Timer drainTime;
+
+    @Value("${modulith.events.resubmission.page-size:500}")
+    private int pageSize;
+
+    @Value("${modulith.events.resubmission.parallelism:4}")
+    private int parallelism;
+
+    // Publications per second, 0 for no limit
+    @Value("${modulith.events.resubmission.rate-limit:1000}")
+    private int rateLimit;
+
+    @Value("${modulith.events.resubmission.max-executor-queue:1000}")
+    private int maxExecutorQueue;
+
+    @Value("${modulith.events.resubmission.max-broker-lag:10000}")
+    private long maxBrokerLag;
+
+    @Value("${modulith.events.resubmission.lag-queues:order.events.queue}")
+    private String[] lagQueues;
+
+    @Value("${modulith.events.resubmission.backoff-initial:500ms}")
+    private Duration backoffInitial;
+
+    @Value("${modulith.events.resubmission.backoff-max:30s}")
+    private Duration backoffMax;
+
+    // Age after which an incomplete publication counts as failed rather than in flight
+    @Value("${modulith.events.resubmission.failed-after:5m}")
+    private Duration failedAfter;
+
+    // Instead of Spring Modulith's republication on restart, which the fast profile turns off
+    @Value("${modulith.events.resubmission.on-startup:true}")
+    private boolean resubmitOnStartup;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean cancelRequested = new AtomicBoolean();
+    private final AtomicReference<Run> current = new AtomicReference<>();
+    private volatile Map<String, ApplicationListenerMethodAdapter> listeners;
+
+    public EventPublicationService(NamedParameterJdbcTemplate jdbcTemplate,
+            EventSerializer eventSerializer,
+            ApplicationContext applicationContext,
+            @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+            ObjectProvider<Executor> taskExecutor,
+            ObjectProvider<AmqpAdmin> amqpAdmin,
+            SchemaGate schemaGate,
+            MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventSerializer = eventSerializer;
+        this.applicationContext = applicationContext;
+        this.taskExecutor = taskExecutor;
+        this.amqpAdmin = amqpAdmin;
+        this.schemaGate = schemaGate;
+        this.resubmitted = Counter.builder("modulith.events.resubmitted")
+                .description("Incomplete event publications handed back to their listener")
+                .register(meterRegistry);
+        this.drainTime = Timer.builder("modulith.events.resubmission.duration")
+                .description("Time to drain the incomplete publication backlog")
+                .register(meterRegistry);
+    }
+
+    // Takes the place of Spring Modulith's republication on restart, which hands every
+    // incomplete publication to the executor at once while the context refreshes (and
+    // before a background schema bootstrap created event_publication); this run is paged
+    // and throttled, and starts once the table exists
+    @EventListener(ApplicationReadyEvent.class)
+    void resubmitOnStartup() {
+        if (resubmitOnStartup) {
+            schemaGate.whenOpen(() -> startResubmission(Duration.ZERO));
+        }
+    }
 
     /**
-     * Resubmit all incomplete publications
+     * Resubmit all incomplete publications, including those whose listener may still be running
      */
-    public void resubmitIncompletePublications() {
+    public ResubmissionProgress resubmitIncompletePublications() {
         log.info("Resubmitting all incomplete event publications");
-        incompleteEventPublications.resubmitIncompletePublications(p -> true);
+        return resubmit(Duration.ZERO);
+    }
+
+    /**
+     * Resubmit failed publications only: those still incomplete once failed-after has passed,
+     * by when their listener has either completed them or given up
+     */
+    public ResubmissionProgress resubmitFailedPublications() {
+        log.info("Resubmitting event publications incomplete for more than {}", failedAfter);
+        return resubmit(failedAfter);
     }
 
     /**
-     * Resubmit failed publications only
+     * Resubmit publications older than the given duration
      */
-    public void resubmitFailedPublications() {
-        log.info("Resubmitting failed event publications");
-        Predicate<EventPublication> failedPublications = p -> {
+    public ResubmissionProgress resubmitIncompletePublicationsOlderThan(Duration duration) {
+        log.info("Resubmitting incomplete event publications older than {}", duration);
+        return resubmit(duration);
+    }
+
+    /**
+     * Start a resubmission of publications older than the given duration in the background.
+     *
+     * @return {@code false} if a run is already in progress
+     */
+    public boolean startResubmission(Duration olderThan) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
             try {
-                return p.getCompletionDate().isEmpty();
+                run(olderThan);
             } catch (Exception e) {
-                return true; // Consider it failed if we can't determine status
+                log.error("Background resubmission failed", e);
             }
-        };
-        incompleteEventPublications.resubmitIncompletePublications(failedPublications);
+        }, "publication-resubmission");
+        thread.setDaemon(true);
+        try {
+            thread.start();
+        } catch (RuntimeException | Error e) {
+            running.set(false);
+            throw e;
+        }
+        return true;
     }
 
     /**
-     * Resubmit publications older than the given duration
+     * Ask the current run to stop after the page in progress.
      */
-    public void resubmitIncompletePublicationsOlderThan(Duration duration) {
-        log.info("Resubmitting incomplete event publications older than {}", duration);
-        incompleteEventPublications.resubmitIncompletePublicationsOlderThan(duration);
+    public void cancelResubmission() {
+        if (running.get()) {
+            cancelRequested.set(true);
+        }
+    }
+
+    public ResubmissionProgress getProgress() {
+        Run run = current.get();
+        return run == null ? ResubmissionProgress.IDLE : run.snapshot();
+    }
+
+    // Runs in the caller's thread, or reports the progress of the run already in progress
+    private ResubmissionProgress resubmit(Duration olderThan) {
+        if (!running.compareAndSet(false, true)) {
+            log.info("A resubmission is already running, not starting another");
+            return getProgress();
+        }
+        return run(olderThan);
+    }
+
+    // Only called by whoever set running
+    private ResubmissionProgress run(Duration olderThan) {
+        Run run;
+        Timestamp before = Timestamp.from(Instant.now().minus(olderThan));
+        try {
+            cancelRequested.set(false);
+            run = new Run(jdbcTemplate.queryForObject(BACKLOG_SQL, Map.of("before", before), Long.class));
+            current.set(run);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(pageSize), runnable -> {
+                    Thread thread = new Thread(runnable, "publication-resubmit");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            Instant afterDate = null;
+            UUID afterId = null;
+            while (run.backlog > 0 && !cancelRequested.get()) {
+                awaitCapacity(run);
+                List<Publication> page = nextPage(before, afterDate, afterId);
+                List<Future<?>> dispatches = new ArrayList<>(page.size());
+                for (Publication publication : page) {
+                    pace(run);
+                    dispatches.add(pool.submit(() -> dispatch(publication, run)));
+                }
+                for (Future<?> dispatch : dispatches) {
+                    dispatch.get();
+                }
+                if (!page.isEmpty()) {
+                    Publication last = page.get(page.size() - 1);
+                    afterDate = last.publicationDate();
+                    afterId = last.id();
+                    run.cursor = afterDate;
+                    run.pages.incrementAndGet();
+                }
+                if (page.size() < pageSize) {
+                    break;
+                }
+            }
+
+            run.finish(cancelRequested.get() ? "CANCELLED" : "COMPLETED");
+            drainTime.record(run.elapsed());
+            log.info("Resubmission {}: {} dispatched, {} skipped, {} failed in {}", run.state,
+                    run.dispatched.get(), run.skipped.get(), run.failed.get(), run.elapsed());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.finish("CANCELLED");
+        } catch (Exception e) {
+            run.finish("FAILED");
+            log.error("Resubmission failed at publication date {}", run.cursor, e);
+        } finally {
+            pool.shutdownNow();
+            running.set(false);
+        }
+        return run.snapshot();
+    }
+
+    private List<Publication> nextPage(Timestamp before, Instant afterDate, UUID afterId) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("before", before)
+                .addValue("limit", pageSize);
+        String sql = PAGE_SQL;
+        if (afterDate != null) {
+            sql += AFTER_CURSOR;
+            params.addValue("afterDate", Timestamp.from(afterDate)).addValue("afterId", afterId);
+        }
+        return jdbcTemplate.query(sql + PAGE_ORDER, params, (rs, rowNum) -> new Publication(
+                rs.getObject("id", UUID.class),
+                rs.getTimestamp("publication_date").toInstant(),
+                rs.getString("event_type"),
+                rs.getString("serialized_event"),
+                rs.getString("listener_id")));
+    }
+
+    private void dispatch(Publication publication, Run run) {
+        ApplicationListenerMethodAdapter listener = listeners().get(publication.listenerId());
+        if (listener == null) {
+            log.warn("No listener {} for publication {}, skipping", publication.listenerId(), publication.id());
+            run.skipped.incrementAndGet();
+            return;
+        }
+        try {
+            Class<?> type = ClassUtils.forName(publication.eventType(), applicationContext.getClassLoader());
+            Object event = eventSerializer.deserialize(publication.serializedEvent(), type);
+            // Asynchronous module listeners return right away, their completion marks the publication
+            listener.processEvent(event instanceof ApplicationEvent applicationEvent
+                    ? applicationEvent : new PayloadApplicationEvent<>(this, event));
+            run.dispatched.incrementAndGet();
+            resubmitted.increment();
+        } catch (Exception e) {
+            log.warn("Failed to resubmit publication {}: {}", publication.id(), e.getMessage());
+            run.failed.incrementAndGet();
+        }
+    }
+
+    // Listeners by the id stored in event_publication.listener_id
+    private Map<String, ApplicationListenerMethodAdapter> listeners() {
+        Map<String, ApplicationListenerMethodAdapter> byId = listeners;
+        if (byId == null) {
+            byId = new HashMap<>();
+            if (applicationContext instanceof AbstractApplicationContext context) {
+                for (var listener : context.getApplicationListeners()) {
+                    if (listener instanceof ApplicationListenerMethodAdapter adapter) {
+                        byId.put(adapter.getListenerId(), adapter);
+                    }
+                }
+            }
+            listeners = byId;
+        }
+        return byId;
+    }
+
+    // Spread the dispatches of a page evenly at the configured rate
+    private void pace(Run run) throws InterruptedException {
+        if (rateLimit <= 0) {
+            return;
+        }
+        long interval = TimeUnit.SECONDS.toNanos(1) / rateLimit;
+        long wait = run.nextDispatch - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        run.nextDispatch = Math.max(run.nextDispatch, System.nanoTime() - interval) + interval;
+    }
+
+    // Back off exponentially while the listeners are behind
+    private void awaitCapacity(Run run) throws InterruptedException {
+        long backoff = backoffInitial.toMillis();
+        while (!cancelRequested.get() && isBehind()) {
+            run.backoffs.incrementAndGet();
+            log.debug("Listeners are behind, pausing resubmission for {} ms", backoff);
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, backoffMax.toMillis());
+        }
+    }
+
+    private boolean isBehind() {
+        if (taskExecutor.getIfAvailable() instanceof ThreadPoolTaskExecutor executor
+                && executor.getThreadPoolExecutor().getQueue().size() > maxExecutorQueue) {
+            return true;
+        }
+        AmqpAdmin admin = amqpAdmin.getIfAvailable();
+        if (admin == null) {
+            return false;
+        }
+        try {
+            long lag = 0;
+            for (String queue : lagQueues) {
+                QueueInformation info = admin.getQueueInfo(queue);
+                lag += info == null ? 0 : info.getMessageCount();
+            }
+            return lag > maxBrokerLag;
+        } catch (Exception e) {
+            // Don't stall on monitoring, publications that fail again stay incomplete
+            log.debug("Could not read queue depth: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private record Publication(UUID id, Instant publicationDate, String eventType, String serializedEvent,
+            String listenerId) {
+    }
+
+    private static final class Run {
+
+        private final long backlog;
+        private final Instant startedAt = Instant.now();
+        private final AtomicLong dispatched = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong pages = new AtomicLong();
+        private final AtomicLong backoffs = new AtomicLong();
+        private volatile String state = "RUNNING";
+        private volatile Instant cursor;
+        private volatile Instant finishedAt;
+        private long nextDispatch = System.nanoTime();
+
+        private Run(long backlog) {
+            this.backlog = backlog;
+        }
+
+        private void finish(String state) {
+            this.finishedAt = Instant.now();
+            this.state = state;
+        }
+
+        private Duration elapsed() {
+            return Duration.between(startedAt, finishedAt == null ? Instant.now() : finishedAt);
+        }
+
+        private ResubmissionProgress snapshot() {
+            Duration elapsed = elapsed();
+            double seconds = elapsed.toMillis() / 1000.0;
+            return new ResubmissionProgress(state, backlog, dispatched.get(), skipped.get(), failed.get(),
+                    pages.get(), backoffs.get(), cursor, startedAt, finishedAt, elapsed,
+                    seconds > 0 ? dispatched.get() / seconds : 0);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package com.kamruddin.modulith;
+
+import java.time.Duration;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Actuator endpoint to drain the incomplete publication backlog:
+ * GET /actuator/resubmission reports progress, POST starts a run (optionally only for
+ * publications older than {@code olderThan}, e.g. PT5M) or reports the one already running,
+ * DELETE cancels it.
+ */
+@Component
+@Endpoint(id = "resubmission")
+@RequiredArgsConstructor
+public class ResubmissionEndpoint {
+
+    private final EventPublicationService eventPublicationService;
+
+    @ReadOperation
+    public ResubmissionProgress progress() {
+        return eventPublicationService.getProgress();
+    }
+
+    @WriteOperation
+    public ResubmissionProgress start(@Nullable String olderThan) {
+        Duration age = olderThan == null ? Duration.ZERO : Duration.parse(olderThan);
+        // A run already in progress is reported instead of starting another
+        eventPublicationService.startResubmission(age);
+        return eventPublicationService.getProgress();
+    }
+
+    @DeleteOperation
+    public ResubmissionProgress cancel() {
+        eventPublicationService.cancelResubmission();
+        return eventPublicationService.getProgress();
+    }
+}
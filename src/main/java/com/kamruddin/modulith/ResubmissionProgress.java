@@ -0,0 +1,33 @@
+package com.kamruddin.modulith;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Snapshot of a resubmission run, reported by the resubmission actuator endpoint.
+ *
+ * @param state IDLE before the first run, then RUNNING, COMPLETED, CANCELLED or FAILED
+ * @param backlog incomplete publications eligible when the run started
+ * @param dispatched publications handed back to their listener
+ * @param skipped publications whose listener no longer exists
+ * @param failed publications that could not be deserialized or dispatched
+ * @param backoffs times the run paused because the executor or the broker was behind
+ * @param cursor publication date of the last dispatched publication
+ */
+public record ResubmissionProgress(
+        String state,
+        long backlog,
+        long dispatched,
+        long skipped,
+        long failed,
+        long pages,
+        long backoffs,
+        Instant cursor,
+        Instant startedAt,
+        Instant finishedAt,
+        Duration elapsed,
+        double eventsPerSecond) {
+
+    static final ResubmissionProgress IDLE =
+            new ResubmissionProgress("IDLE", 0, 0, 0, 0, 0, 0, null, null, null, Duration.ZERO, 0);
+}
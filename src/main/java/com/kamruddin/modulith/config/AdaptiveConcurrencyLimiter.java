@@ -0,0 +1,133 @@
+package com.kamruddin.modulith.config;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit that follows the latency of the work it admits (AIMD with a latency
+ * gradient). The current latency is a moving average over about the last ten completed calls,
+ * the baseline the lowest current latency of the last two baseline windows:
+ * <ul>
+ * <li>while the current latency stays below tolerance times the baseline, the limit grows by
+ * about one per limit's worth of completed calls;</li>
+ * <li>when it rises above, or a call fails, the limit shrinks by the backoff ratio, at most
+ * once per current latency so that one slow burst counts once.</li>
+ * </ul>
+ * A lasting slowdown moves the baseline along, so the limit settles at what the slower
+ * backend sustains instead of staying at the minimum. Calls over the limit are not queued,
+ * {@link #tryAcquire()} refuses them right away.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SMOOTHING = 0.1;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final long baselineWindowNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private volatile double limit;
+    private double latencyNanos;
+    private long windowStart = System.nanoTime();
+    private double windowMin = Double.MAX_VALUE;
+    private double previousWindowMin = Double.MAX_VALUE;
+    private long lastDecrease = windowStart;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance,
+            double backoffRatio, Duration baselineWindow) {
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.baselineWindowNanos = baselineWindow.toNanos();
+    }
+
+    /**
+     * @return true if the call may run, it must then end with {@link #release}
+     */
+    public boolean tryAcquire() {
+        for (int current = inFlight.get(); ; current = inFlight.get()) {
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param elapsedNanos how long the admitted call took
+     * @param failed whether it failed in a way that indicates overload (timeout, 5xx)
+     */
+    public void release(long elapsedNanos, boolean failed) {
+        inFlight.decrementAndGet();
+        sample(elapsedNanos, failed);
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the current latency average, 0 before the first completed call
+     */
+    public synchronized double getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    /**
+     * @return the latency the current one is compared with, 0 before the first completed call
+     */
+    public synchronized double getBaselineNanos() {
+        double baseline = Math.min(windowMin, previousWindowMin);
+        return baseline == Double.MAX_VALUE ? 0 : baseline;
+    }
+
+    private synchronized void sample(long elapsedNanos, boolean failed) {
+        long now = System.nanoTime();
+        if (now - windowStart > baselineWindowNanos) {
+            previousWindowMin = windowMin;
+            windowMin = Double.MAX_VALUE;
+            windowStart = now;
+        }
+        latencyNanos = latencyNanos == 0 ? elapsedNanos : latencyNanos + SMOOTHING * (elapsedNanos - latencyNanos);
+        // Failures end at timeouts rather than when the work is done, they don't count as a baseline
+        if (!failed) {
+            windowMin = Math.min(windowMin, latencyNanos);
+        }
+
+        double baseline = getBaselineNanos();
+        boolean overloaded = failed || (baseline > 0 && latencyNanos > tolerance * baseline);
+        if (overloaded) {
+            if (now - lastDecrease > latencyNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecrease = now;
+            }
+        } else if (inFlight.get() + 1 >= limit / 2) {
+            // Only grow a limit that is actually used
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.kamruddin.modulith.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Admission control for the write endpoints, on unless admission.enabled=false. Order
+ * placement, batch placement and product writes get a limiter each, sized by the latency of
+ * the requests they admit, so a slow database or broker turns into quick 503s instead of
+ * requests queueing on Tomcat threads for a pooled connection. Read endpoints are never
+ * limited.
+ */
+@Configuration
+@ConditionalOnProperty(name = "admission.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class AdmissionControlConfig implements WebMvcConfigurer {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${admission.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${admission.min-limit:4}")
+    private int minLimit;
+
+    @Value("${admission.max-limit:200}")
+    private int maxLimit;
+
+    @Value("${admission.tolerance:2.0}")
+    private double tolerance;
+
+    @Value("${admission.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    @Value("${admission.baseline-window:30s}")
+    private Duration baselineWindow;
+
+    @Value("${admission.retry-after:1s}")
+    private Duration retryAfter;
+
+    public AdmissionControlConfig(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Batches take far longer than single orders, mixing them would skew the latency signal
+        registry.addInterceptor(interceptor("orders")).addPathPatterns("/api/orders");
+        registry.addInterceptor(interceptor("orders-batch")).addPathPatterns("/api/orders/batch");
+        // Imports run as long as their upload, they are left out
+        registry.addInterceptor(interceptor("inventory")).addPathPatterns("/api/products", "/api/products/**")
+                .excludePathPatterns("/api/products/import");
+    }
+
+    private AdmissionInterceptor interceptor(String name) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit,
+                tolerance, backoffRatio, baselineWindow);
+        Gauge.builder("admission.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Concurrent write requests the limiter admits")
+                .tag("limiter", name)
+                .register(meterRegistry);
+        Gauge.builder("admission.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Write requests currently admitted")
+                .tag("limiter", name)
+                .register(meterRegistry);
+        Gauge.builder("admission.latency", limiter, l -> l.getLatencyNanos() / 1e6)
+                .description("Moving average latency of admitted requests in ms, the limiter's input")
+                .tag("limiter", name)
+                .register(meterRegistry);
+        FunctionCounter.builder("admission.requests", limiter, AdaptiveConcurrencyLimiter::getAccepted)
+                .description("Write requests admitted or rejected by the limiter")
+                .tag("limiter", name)
+                .tag("outcome", "accepted")
+                .register(meterRegistry);
+        FunctionCounter.builder("admission.requests", limiter, AdaptiveConcurrencyLimiter::getRejected)
+                .description("Write requests admitted or rejected by the limiter")
+                .tag("limiter", name)
+                .tag("outcome", "rejected")
+                .register(meterRegistry);
+        log.info("Admission control for {} writes: limit {} ({}..{})", name, initialLimit, minLimit, maxLimit);
+        return new AdmissionInterceptor(limiter, Math.max(1, retryAfter.toSeconds()));
+    }
+}
@@ -0,0 +1,14 @@
+package com.kamruddin.modulith.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Caches are Caffeine backed and sized through the spring.cache.* properties,
+ * Spring Boot binds their hit/miss/eviction statistics to Micrometer.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+}
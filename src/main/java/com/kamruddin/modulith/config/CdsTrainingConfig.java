@@ -0,0 +1,72 @@
+package com.kamruddin.modulith.config;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.modulith.events.core.EventPublicationRepository;
+import org.springframework.modulith.events.core.PublicationTargetIdentifier;
+import org.springframework.modulith.events.core.TargetEventPublication;
+
+/**
+ * Class data sharing training run of the Dockerfile, active with the cds-training profile. The
+ * run refreshes the context and exits, so it needs neither a database nor a broker; the only
+ * bean that connects while the context refreshes is the JDBC event publication repository,
+ * which application-cds-training.properties excludes in favour of this one. It never sees a
+ * publication.
+ */
+@Configuration
+@Profile("cds-training")
+public class CdsTrainingConfig {
+
+    @Bean
+    public EventPublicationRepository eventPublicationRepository() {
+        return new EventPublicationRepository() {
+
+            @Override
+            public TargetEventPublication create(TargetEventPublication publication) {
+                return publication;
+            }
+
+            @Override
+            public void markCompleted(Object event, PublicationTargetIdentifier identifier, Instant completionDate) {
+            }
+
+            @Override
+            public void markCompleted(UUID identifier, Instant completionDate) {
+            }
+
+            @Override
+            public List<TargetEventPublication> findIncompletePublications() {
+                return List.of();
+            }
+
+            @Override
+            public List<TargetEventPublication> findIncompletePublicationsPublishedBefore(Instant instant) {
+                return List.of();
+            }
+
+            @Override
+            public Optional<TargetEventPublication> findIncompletePublicationsByEventAndTargetIdentifier(
+                    Object event, PublicationTargetIdentifier targetIdentifier) {
+                return Optional.empty();
+            }
+
+            @Override
+            public void deletePublications(List<UUID> identifiers) {
+            }
+
+            @Override
+            public void deleteCompletedPublications() {
+            }
+
+            @Override
+            public void deleteCompletedPublicationsBefore(Instant instant) {
+            }
+        };
+    }
+}
@@ -0,0 +1,41 @@
+package com.kamruddin.modulith.config;
+
+import java.util.Base64;
+
+import org.springframework.modulith.events.core.EventSerializer;
+
+/**
+ * Stores events that have an {@link EventCodec} in event_publication.serialized_event as
+ * a prefixed Base64 string instead of JSON. Rows without the prefix are read as JSON, so
+ * publications written before switching to the binary codec can still be resubmitted.
+ */
+public class CodecEventSerializer implements EventSerializer {
+
+    static final String PREFIX = "bin:";
+
+    private final EventCodecs codecs;
+    private final EventSerializer json;
+
+    public CodecEventSerializer(EventCodecs codecs, EventSerializer json) {
+        this.codecs = codecs;
+        this.json = json;
+    }
+
+    @Override
+    public Object serialize(Object event) {
+        EventCodec<Object> codec = codecs.encoderFor(event.getClass());
+        if (codec == null) {
+            return json.serialize(event);
+        }
+        return PREFIX + Base64.getEncoder().encodeToString(codec.encode(event));
+    }
+
+    @Override
+    public <T> T deserialize(Object serialized, Class<T> type) {
+        EventCodec<?> codec = codecs.decoderFor(type.getName());
+        if (codec != null && serialized instanceof String text && text.startsWith(PREFIX)) {
+            return type.cast(codec.decode(Base64.getDecoder().decode(text.substring(PREFIX.length()))));
+        }
+        return json.deserialize(serialized, type);
+    }
+}
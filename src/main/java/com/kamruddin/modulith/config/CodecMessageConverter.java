@@ -0,0 +1,52 @@
+package com.kamruddin.modulith.config;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * Writes events that have an {@link EventCodec} as compact binary messages and everything
+ * else as JSON. Reads by content type, so binary and JSON messages can share a queue
+ * while instances are being upgraded.
+ */
+public class CodecMessageConverter implements MessageConverter {
+
+    public static final String CONTENT_TYPE = "application/x-modulith-event";
+    public static final String TYPE_HEADER = "x-event-type";
+
+    private final EventCodecs codecs;
+    private final MessageConverter json;
+
+    public CodecMessageConverter(EventCodecs codecs, MessageConverter json) {
+        this.codecs = codecs;
+        this.json = json;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        EventCodec<Object> codec = codecs.encoderFor(object.getClass());
+        if (codec == null) {
+            return json.toMessage(object, messageProperties);
+        }
+        byte[] body = codec.encode(object);
+        messageProperties.setContentType(CONTENT_TYPE);
+        messageProperties.setContentLength(body.length);
+        messageProperties.setHeader(TYPE_HEADER, object.getClass().getName());
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        MessageProperties properties = message.getMessageProperties();
+        if (!CONTENT_TYPE.equals(properties.getContentType())) {
+            return json.fromMessage(message);
+        }
+        String type = properties.getHeader(TYPE_HEADER);
+        EventCodec<?> codec = type == null ? null : codecs.decoderFor(type);
+        if (codec == null) {
+            throw new MessageConversionException("No event codec for binary message of type " + type);
+        }
+        return codec.decode(message.getBody());
+    }
+}
@@ -0,0 +1,24 @@
+package com.kamruddin.modulith.config;
+
+/**
+ * Compact binary encoding of one event type, used for the AMQP payload and the stored
+ * event publication when {@code modulith.events.codec=binary}. The first byte of every
+ * encoded event is the schema version, so a codec can keep decoding what older versions
+ * wrote. Register implementations as beans, {@link EventCodecs} picks them up.
+ */
+public interface EventCodec<T> {
+
+    Class<T> type();
+
+    /**
+     * @return the schema version written by {@link #encode(Object)}
+     */
+    byte version();
+
+    byte[] encode(T event);
+
+    /**
+     * @throws IllegalArgumentException if the bytes were written by an unknown schema version
+     */
+    T decode(byte[] bytes);
+}
@@ -0,0 +1,40 @@
+package com.kamruddin.modulith.config;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Registry of the {@link EventCodec} beans by event type. Decoding always works for a
+ * registered type, encoding only once {@code modulith.events.codec=binary}, so during a
+ * rolling upgrade new instances can read binary events before any instance writes them.
+ */
+@Component
+public class EventCodecs {
+
+    private final Map<String, EventCodec<?>> codecs = new HashMap<>();
+    private final boolean binary;
+
+    public EventCodecs(List<EventCodec<?>> codecs, @Value("${modulith.events.codec:json}") String codec) {
+        codecs.forEach(it -> this.codecs.put(it.type().getName(), it));
+        this.binary = "binary".equalsIgnoreCase(codec);
+    }
+
+    /**
+     * @return the codec to write events of the given type with, {@code null} to write JSON
+     */
+    @SuppressWarnings("unchecked")
+    public EventCodec<Object> encoderFor(Class<?> type) {
+        return binary ? (EventCodec<Object>) codecs.get(type.getName()) : null;
+    }
+
+    /**
+     * @return the codec for the given event type name, {@code null} if there is none
+     */
+    public EventCodec<?> decoderFor(String typeName) {
+        return codecs.get(typeName);
+    }
+}
@@ -0,0 +1,230 @@
+package com.kamruddin.modulith.config;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sizes the order event consumers at runtime, enabled with inventory.listener.autoscale.enabled.
+ * Every interval it sets the consumer count of each running order listener container to what
+ * drains the queue backlog within the target drain time at the observed stock update latency,
+ * and the prefetch to about prefetch-buffer worth of messages per consumer. Growth is limited:
+ * <ul>
+ * <li>consumers of all containers together stay below the Hikari pool size minus
+ * reserved-connections, so the listeners can never take the whole pool;</li>
+ * <li>while threads wait for a pooled connection the consumers shrink;</li>
+ * <li>while the stock update latency is above latency-threshold they don't grow.</li>
+ * </ul>
+ * The sharded listener is left alone, each shard has a single consumer for ordering. Consumers
+ * keep the prefetch they started with, so a new prefetch is applied by restarting the container:
+ * only when it is at least twice or half the current one, and at most once per restart-interval,
+ * because the restart returns the consumers' unacknowledged messages to the queue. The decisions
+ * themselves are made by {@link ListenerScalingPolicy}.
+ */
+@Component
+@ConditionalOnProperty(name = "inventory.listener.autoscale.enabled", havingValue = "true")
+@Slf4j
+public class ListenerAutoscaler {
+
+    private static final String LATENCY_TIMER = "inventory.stock.update";
+
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final AmqpAdmin amqpAdmin;
+    private final MeterRegistry meterRegistry;
+    private final HikariDataSource hikari;
+    private final Map<String, Scale> scales = new ConcurrentHashMap<>();
+
+    private final ListenerScalingPolicy policy;
+    private final int minConsumers;
+    private final int maxConsumers;
+    private final int reservedConnections;
+    private final long restartIntervalNanos;
+
+    private long lastCount;
+    private double lastTotalNanos;
+
+    public ListenerAutoscaler(RabbitListenerEndpointRegistry listenerRegistry, AmqpAdmin amqpAdmin,
+            MeterRegistry meterRegistry, DataSource dataSource,
+            @Value("${inventory.listener.autoscale.min-consumers:1}") int minConsumers,
+            @Value("${inventory.listener.autoscale.max-consumers:20}") int maxConsumers,
+            @Value("${inventory.listener.autoscale.min-prefetch:10}") int minPrefetch,
+            @Value("${inventory.listener.autoscale.max-prefetch:250}") int maxPrefetch,
+            @Value("${inventory.listener.autoscale.target-drain-time:10s}") Duration targetDrainTime,
+            @Value("${inventory.listener.autoscale.prefetch-buffer:200ms}") Duration prefetchBuffer,
+            @Value("${inventory.listener.autoscale.latency-threshold:50ms}") Duration latencyThreshold,
+            @Value("${inventory.listener.autoscale.reserved-connections:2}") int reservedConnections,
+            @Value("${inventory.listener.autoscale.restart-interval:1m}") Duration restartInterval) {
+        this.listenerRegistry = listenerRegistry;
+        this.amqpAdmin = amqpAdmin;
+        this.meterRegistry = meterRegistry;
+        this.hikari = unwrapHikari(dataSource);
+        this.policy = new ListenerScalingPolicy(minConsumers, maxConsumers, minPrefetch, maxPrefetch,
+                targetDrainTime, prefetchBuffer, latencyThreshold);
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+        this.reservedConnections = reservedConnections;
+        this.restartIntervalNanos = restartInterval.toNanos();
+    }
+
+    @Scheduled(initialDelayString = "${inventory.listener.autoscale.interval:5000}",
+            fixedDelayString = "${inventory.listener.autoscale.interval:5000}")
+    public void adjust() {
+        double latencyNanos = recentLatencyNanos();
+        // The pool is created with the first connection, until then there is nothing to watch
+        HikariPoolMXBean pool = hikari != null ? hikari.getHikariPoolMXBean() : null;
+        boolean poolSaturated = pool != null && pool.getThreadsAwaitingConnection() > 0;
+        int budget = hikari != null ? hikari.getMaximumPoolSize() - reservedConnections : Integer.MAX_VALUE;
+        for (String id : List.of(RabbitMQConfig.ORDER_LISTENER_ID, RabbitMQConfig.BATCH_ORDER_LISTENER_ID)) {
+            MessageListenerContainer listener = listenerRegistry.getListenerContainer(id);
+            if (listener instanceof SimpleMessageListenerContainer container && container.isRunning()) {
+                try {
+                    budget -= adjust(id, container, latencyNanos, poolSaturated, Math.max(minConsumers, budget));
+                } catch (Exception e) {
+                    log.warn("Could not autoscale listener {}: {}", id, e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Returns the consumer count of the container after the adjustment
+    private int adjust(String id, SimpleMessageListenerContainer container, double latencyNanos,
+            boolean poolSaturated, int budget) {
+        Scale scale = scale(id, container);
+        long backlog = backlog(container);
+        int current = scale.consumers;
+
+        ListenerScalingPolicy.Decision decision =
+                policy.consumers(current, backlog, latencyNanos, poolSaturated, budget);
+        int target = decision.consumers();
+        if (target != current) {
+            if (target > current) {
+                container.setMaxConcurrentConsumers(target);
+                container.setConcurrentConsumers(target);
+            } else {
+                container.setConcurrentConsumers(target);
+                container.setMaxConcurrentConsumers(target);
+            }
+            scale.consumers = target;
+            decision(id, target > current ? "up" : "down", decision.reason());
+            log.info("Listener {}: {} -> {} consumers ({}, backlog {})", id, current, target, decision.reason(), backlog);
+        }
+
+        // Batch containers need room for whole batches, their prefetch stays as configured.
+        // Running consumers keep the prefetch they started with, so a new one takes a restart.
+        int prefetch = policy.prefetch(latencyNanos);
+        if (!container.isConsumerBatchEnabled() && policy.isWorthRestart(scale.prefetch, prefetch)
+                && System.nanoTime() - scale.restartedAt >= restartIntervalNanos) {
+            decision(id, prefetch > scale.prefetch ? "up" : "down", "prefetch");
+            log.info("Listener {}: prefetch {} -> {}, restarting its consumers", id, scale.prefetch, prefetch);
+            container.setPrefetchCount(prefetch);
+            container.stop();
+            container.start();
+            scale.prefetch = prefetch;
+            scale.restartedAt = System.nanoTime();
+        }
+        return scale.consumers;
+    }
+
+    private long backlog(SimpleMessageListenerContainer container) {
+        long backlog = 0;
+        for (String queue : container.getQueueNames()) {
+            QueueInformation info = amqpAdmin.getQueueInfo(queue);
+            if (info != null) {
+                backlog += info.getMessageCount();
+            }
+        }
+        return backlog;
+    }
+
+    // Mean stock update time since the previous run, 0 if nothing was processed
+    private synchronized double recentLatencyNanos() {
+        long count = 0;
+        double totalNanos = 0;
+        for (Timer timer : meterRegistry.find(LATENCY_TIMER).timers()) {
+            count += timer.count();
+            totalNanos += timer.totalTime(TimeUnit.NANOSECONDS);
+        }
+        long processed = count - lastCount;
+        double latency = processed > 0 ? (totalNanos - lastTotalNanos) / processed : 0;
+        lastCount = count;
+        lastTotalNanos = totalNanos;
+        return latency;
+    }
+
+    private Scale scale(String listenerId, SimpleMessageListenerContainer container) {
+        return scales.computeIfAbsent(listenerId, id -> {
+            Scale scale = new Scale(Math.max(minConsumers, Math.min(maxConsumers, activeConsumers(container))),
+                    AbstractMessageListenerContainer.DEFAULT_PREFETCH_COUNT);
+            Gauge.builder("inventory.listener.consumers", scale, s -> s.consumers)
+                    .description("Consumers the autoscaler assigned to the listener")
+                    .tag("listener", id)
+                    .register(meterRegistry);
+            if (!container.isConsumerBatchEnabled()) {
+                Gauge.builder("inventory.listener.prefetch", scale, s -> s.prefetch)
+                        .description("Prefetch of the listener's consumers, applied by restarting them")
+                        .tag("listener", id)
+                        .register(meterRegistry);
+            }
+            return scale;
+        });
+    }
+
+    private void decision(String listenerId, String direction, String reason) {
+        Counter.builder("inventory.listener.scaling")
+                .description("Autoscaler changes of listener consumers and prefetch")
+                .tag("listener", listenerId)
+                .tag("direction", direction)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static int activeConsumers(SimpleMessageListenerContainer container) {
+        return Math.max(1, container.getActiveConsumerCount());
+    }
+
+    private static HikariDataSource unwrapHikari(DataSource dataSource) {
+        try {
+            return dataSource.isWrapperFor(HikariDataSource.class) ? dataSource.unwrap(HikariDataSource.class) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private static final class Scale {
+
+        private volatile int consumers;
+        private volatile int prefetch;
+        private long restartedAt = System.nanoTime();
+
+        private Scale(int consumers, int prefetch) {
+            this.consumers = consumers;
+            this.prefetch = prefetch;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.kamruddin.modulith.config;
+
+import java.time.Duration;
+
+/**
+ * The decisions of the {@link ListenerAutoscaler}, apart from the containers they are applied
+ * to: the consumer count that drains a backlog within the target drain time, and the prefetch
+ * that buffers about prefetch-buffer worth of messages per consumer.
+ */
+public class ListenerScalingPolicy {
+
+    /**
+     * Consumers a container should have, and why: pool_saturated, latency, backlog or idle.
+     */
+    public record Decision(int consumers, String reason) {
+    }
+
+    private final int minConsumers;
+    private final int maxConsumers;
+    private final int minPrefetch;
+    private final int maxPrefetch;
+    private final long targetDrainNanos;
+    private final long prefetchBufferNanos;
+    private final long latencyThresholdNanos;
+
+    public ListenerScalingPolicy(int minConsumers, int maxConsumers, int minPrefetch, int maxPrefetch,
+            Duration targetDrainTime, Duration prefetchBuffer, Duration latencyThreshold) {
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+        this.minPrefetch = minPrefetch;
+        this.maxPrefetch = maxPrefetch;
+        this.targetDrainNanos = targetDrainTime.toNanos();
+        this.prefetchBufferNanos = prefetchBuffer.toNanos();
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+    }
+
+    /**
+     * @param current consumers the container has now
+     * @param backlog messages waiting in its queues
+     * @param latencyNanos mean stock update time since the last decision, 0 if nothing was processed
+     * @param poolSaturated whether threads wait for a pooled connection
+     * @param budget consumers the connection pool still has room for
+     */
+    public Decision consumers(int current, long backlog, double latencyNanos, boolean poolSaturated, int budget) {
+        // Consumers that drain the backlog in the target time, one message per latency each
+        int wanted = latencyNanos > 0
+                ? (int) Math.ceil(backlog * latencyNanos / targetDrainNanos)
+                : (backlog > 0 ? current + 1 : current);
+        String reason;
+        int target;
+        if (poolSaturated) {
+            target = Math.min(wanted, current - Math.max(1, current / 4));
+            reason = "pool_saturated";
+        } else if (wanted > current && latencyNanos > latencyThresholdNanos) {
+            target = current;
+            reason = "latency";
+        } else if (wanted > current) {
+            // At most double per step, the latency must be observed at the new size first
+            target = Math.min(wanted, current * 2);
+            reason = "backlog";
+        } else if (backlog == 0) {
+            target = current - 1;
+            reason = "idle";
+        } else {
+            target = Math.max(wanted, current - 1);
+            reason = "backlog";
+        }
+        return new Decision(Math.max(minConsumers, Math.min(target, Math.min(maxConsumers, budget))), reason);
+    }
+
+    /**
+     * Prefetch for the observed latency, 0 if nothing was processed and there is nothing to go by.
+     */
+    public int prefetch(double latencyNanos) {
+        if (latencyNanos <= 0) {
+            return 0;
+        }
+        return (int) Math.max(minPrefetch, Math.min(maxPrefetch, prefetchBufferNanos / latencyNanos));
+    }
+
+    /**
+     * A prefetch only reaches consumers when they (re)start, and restarting them returns their
+     * unacknowledged messages to the queue. So it is only worth it when the wanted prefetch is
+     * at least twice or at most half the applied one.
+     */
+    public boolean isWorthRestart(int applied, int wanted) {
+        return wanted > 0 && (wanted >= applied * 2 || wanted * 2 <= applied);
+    }
+}
@@ -1,18 +1,34 @@
 package com.kamruddin.modulith.config;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.AnonymousQueue;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.CustomExchange;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.HeadersExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.DirectRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
 
 @Configuration
 public class RabbitMQConfig {
@@ -20,10 +36,69 @@ public class RabbitMQConfig {
     @Value("${spring.application.name}")
     private String applicationName;
 
+    @Value("${inventory.listener.batch.size:100}")
+    private int batchSize;
+
+    @Value("${inventory.listener.batch.receive-timeout:50}")
+    private long batchReceiveTimeout;
+
+    @Value("${inventory.sharding.shards:8}")
+    private int shards;
+
+    @Value("${inventory.listener.concurrent-consumers:2}")
+    private int concurrentConsumers;
+
+    @Value("${inventory.listener.max-concurrent-consumers:5}")
+    private int maxConcurrentConsumers;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${inventory.retry.delays:1s,5s,30s}")
+    private Duration[] retryDelays;
+
+    @Autowired
+    private EventCodecs eventCodecs;
+
     // Define exchange name constants
     public static final String MODULITH_EXCHANGE = "modulith";
     public static final String ORDER_EVENTS_QUEUE = "order.events.queue";
-    public static final String ORDER_EVENTS_ROUTING_KEY = "order.*";
+    public static final String ORDER_EVENTS_ROUTING_KEY = "order.#";
+    public static final String PRODUCT_CHANGES_ROUTING_KEY = "inventory.product.changed";
+
+    // Sharded order events: order.placed.<productId> is hashed onto the shard queues
+    public static final String ORDER_PLACED_ROUTING_PATTERN = "order.placed.*";
+    // Routing key OrderPlacedEvent is externalized with, followed by the product id
+    public static final String ORDER_PLACED_ROUTING_KEY_PREFIX = "order.placed.";
+    public static final String ORDER_EVENTS_SHARDED_EXCHANGE = "order.events.sharded";
+    public static final String ORDER_EVENTS_SHARD_QUEUE_PREFIX = "order.events.shard.";
+    // Binding key of a shard queue on the consistent-hash exchange is its weight on the ring
+    public static final String ORDER_EVENTS_SHARD_WEIGHT = "1";
+    public static final String SHARDED_ORDER_LISTENER_ID = "inventory-orders-sharded";
+    public static final String ORDER_LISTENER_ID = "inventory-orders";
+    public static final String BATCH_ORDER_LISTENER_ID = "inventory-orders-batch";
+
+    // Delayed retries: a failed order event is published through the tier exchange to retry
+    // tier n (a queue whose messages expire after the n-th delay) and dead-lettered back
+    // through the retry exchange to the queue or exchange named in its retry-target header.
+    // After the last tier it goes to the dead-letter queue. Headers exchanges ignore binding
+    // arguments starting with x-, so the routing headers must not.
+    public static final String ORDER_RETRY_EXCHANGE = "order.events.retry";
+    public static final String ORDER_RETRY_TIER_EXCHANGE = "order.events.retry.tiers";
+    public static final String ORDER_RETRY_QUEUE_PREFIX = "order.events.retry.";
+    public static final String ORDER_DEAD_LETTER_QUEUE = "order.events.dlq";
+    public static final String RETRY_TARGET_HEADER = "retry-target";
+    public static final String RETRY_TIER_HEADER = "retry-tier";
+    public static final String RETRY_ATTEMPT_HEADER = "x-retry-attempt";
+    public static final String FAILURE_REASON_HEADER = "x-failure-reason";
+
+    // The order queues only exist in the distributed delivery mode. In the local mode the
+    // inventory applies orders in-process, a bound queue would just collect copies nobody reads.
+    static final String DISTRIBUTED_SHARDED =
+            "'${inventory.delivery.mode:distributed}' == 'distributed' and ${inventory.sharding.enabled:false}";
+    static final String DISTRIBUTED_UNSHARDED =
+            "'${inventory.delivery.mode:distributed}' == 'distributed' and !${inventory.sharding.enabled:false}";
+    static final String DISTRIBUTED = "'${inventory.delivery.mode:distributed}' == 'distributed'";
     
     @Bean
     public TopicExchange exchange() {
@@ -32,6 +107,7 @@ public class RabbitMQConfig {
     }
     
     @Bean
+    @ConditionalOnExpression(DISTRIBUTED_UNSHARDED)
     public Queue orderEventsQueue() {
         // Create a durable queue for order events
         // This queue will be shared across all instances
@@ -39,6 +115,7 @@ public class RabbitMQConfig {
     }
     
     @Bean
+    @ConditionalOnExpression(DISTRIBUTED_UNSHARDED)
     public Binding binding() {
         // Bind the queue to the exchange with a routing key pattern
         return BindingBuilder.bind(orderEventsQueue())
@@ -47,8 +124,104 @@ public class RabbitMQConfig {
     }
     
     @Bean
-    public Jackson2JsonMessageConverter messageConverter() {
-        return new Jackson2JsonMessageConverter();
+    @ConditionalOnExpression(DISTRIBUTED_UNSHARDED)
+    public Binding orderEventsRetryBinding() {
+        return retryBinding(ORDER_EVENTS_QUEUE);
+    }
+
+    @Bean
+    @ConditionalOnExpression(DISTRIBUTED)
+    public Declarables orderEventRetryTiers() {
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(new HeadersExchange(ORDER_RETRY_EXCHANGE, true, false));
+        HeadersExchange tierExchange = new HeadersExchange(ORDER_RETRY_TIER_EXCHANGE, true, false);
+        declarables.add(tierExchange);
+        for (int tier = 0; tier < retryDelays.length; tier++) {
+            // One delay per queue: every message in a tier expires in arrival order,
+            // so a short retry never waits behind a longer one
+            Queue tierQueue = QueueBuilder.durable(retryQueueName(tier))
+                    .ttl((int) retryDelays[tier].toMillis())
+                    .deadLetterExchange(ORDER_RETRY_EXCHANGE)
+                    .build();
+            declarables.add(tierQueue);
+            // Published through an exchange rather than to the queue, so the event keeps its
+            // order.placed.<productId> routing key when it is dead-lettered back
+            declarables.add(BindingBuilder.bind(tierQueue).to(tierExchange)
+                    .whereAll(Map.<String, Object>of(RETRY_TIER_HEADER, String.valueOf(tier))).match());
+        }
+        declarables.add(QueueBuilder.durable(ORDER_DEAD_LETTER_QUEUE).build());
+        return new Declarables(declarables);
+    }
+
+    public static String retryQueueName(int tier) {
+        return ORDER_RETRY_QUEUE_PREFIX + tier;
+    }
+
+    // Expired retries come back to the queue they were consumed from
+    private static Binding retryBinding(String queue) {
+        return BindingBuilder.bind(new Queue(queue))
+                .to(new HeadersExchange(ORDER_RETRY_EXCHANGE, true, false))
+                .whereAll(Map.<String, Object>of(RETRY_TARGET_HEADER, queue))
+                .match();
+    }
+
+    @Bean
+    public String[] orderEventShardQueueNames() {
+        String[] names = new String[shards];
+        for (int shard = 0; shard < shards; shard++) {
+            names[shard] = shardQueueName(shard);
+        }
+        return names;
+    }
+
+    @Bean
+    @ConditionalOnExpression(DISTRIBUTED_SHARDED)
+    public Declarables orderEventShards() {
+        // Needs the rabbitmq_consistent_hash_exchange plugin. Hashing the routing key
+        // order.placed.<productId> sends every event of a product to the same shard, and
+        // changing the shard count only moves about 1/shards of the products.
+        CustomExchange shardedExchange = new CustomExchange(ORDER_EVENTS_SHARDED_EXCHANGE, "x-consistent-hash", true, false);
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(shardedExchange);
+        declarables.add(BindingBuilder.bind(shardedExchange).to(exchange()).with(ORDER_PLACED_ROUTING_PATTERN));
+        for (String name : orderEventShardQueueNames()) {
+            // Single active consumer: one consumer in the whole cluster processes a shard,
+            // the others stand by, which keeps the updates of a product strictly ordered
+            declarables.add(QueueBuilder.durable(name).singleActiveConsumer().build());
+            declarables.add(new Binding(name, Binding.DestinationType.QUEUE, ORDER_EVENTS_SHARDED_EXCHANGE,
+                    ORDER_EVENTS_SHARD_WEIGHT, null));
+        }
+        // Expired retries are hashed again instead of going back to the shard they came from,
+        // which may have been retired and deleted in the meantime
+        declarables.add(BindingBuilder.bind(shardedExchange)
+                .to(new HeadersExchange(ORDER_RETRY_EXCHANGE, true, false))
+                .whereAll(Map.<String, Object>of(RETRY_TARGET_HEADER, ORDER_EVENTS_SHARDED_EXCHANGE))
+                .match());
+        return new Declarables(declarables);
+    }
+
+    public static String shardQueueName(int shard) {
+        return ORDER_EVENTS_SHARD_QUEUE_PREFIX + shard;
+    }
+
+    @Bean
+    public Queue productChangesQueue() {
+        // Non-durable, exclusive, auto-delete queue per instance: product change
+        // notifications must reach every replica rather than compete between them
+        return new AnonymousQueue();
+    }
+
+    @Bean
+    public Binding productChangesBinding() {
+        return BindingBuilder.bind(productChangesQueue())
+                .to(exchange())
+                .with(PRODUCT_CHANGES_ROUTING_KEY);
+    }
+    
+    @Bean
+    public MessageConverter messageConverter() {
+        // Binary for events with a codec when modulith.events.codec=binary, JSON otherwise
+        return new CodecMessageConverter(eventCodecs, new Jackson2JsonMessageConverter());
     }
     
     @Bean
@@ -60,20 +233,59 @@ public class RabbitMQConfig {
     
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(ConnectionFactory connectionFactory) {
-        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        return listenerContainerFactory(connectionFactory);
+    }
+
+    @Bean
+    public SimpleRabbitListenerContainerFactory batchRabbitListenerContainerFactory(ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = listenerContainerFactory(connectionFactory);
+        // Hand the listener up to batchSize messages at once, or whatever arrived
+        // before the receive timeout expired, so one transaction covers the whole batch
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(batchReceiveTimeout);
+        // The broker must be allowed to push at least a full batch to each consumer
+        factory.setPrefetchCount(batchSize * 2);
+        return factory;
+    }
+    
+    @Bean
+    public DirectRabbitListenerContainerFactory shardedRabbitListenerContainerFactory(ConnectionFactory connectionFactory,
+            ShardActivity shardActivity) {
+        // A consumer per shard queue on its own channel, so shards are processed in
+        // parallel while each shard is still consumed in order
+        DirectRabbitListenerContainerFactory factory = new DirectRabbitListenerContainerFactory();
         factory.setConnectionFactory(connectionFactory);
         factory.setMessageConverter(messageConverter());
-        factory.setConcurrentConsumers(2); // Configure for concurrency
-        factory.setMaxConcurrentConsumers(5);
-        // Enable manual acknowledgment to ensure messages are processed
+        factory.setConsumersPerQueue(1);
         factory.setAcknowledgeMode(org.springframework.amqp.core.AcknowledgeMode.MANUAL);
+        factory.setAfterReceivePostProcessors(shardActivity);
+        if (virtualThreads) {
+            factory.setTaskExecutor(new VirtualThreadTaskExecutor("rabbit-sharded-"));
+        }
         return factory;
     }
-    
+
     @Bean
     public AmqpAdmin amqpAdmin(ConnectionFactory connectionFactory) {
         RabbitAdmin admin = new RabbitAdmin(connectionFactory);
         admin.setAutoStartup(true);
         return admin;
     }
+
+    private SimpleRabbitListenerContainerFactory listenerContainerFactory(ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        factory.setConnectionFactory(connectionFactory);
+        factory.setMessageConverter(messageConverter());
+        factory.setConcurrentConsumers(concurrentConsumers); // Configure for concurrency
+        factory.setMaxConcurrentConsumers(maxConcurrentConsumers);
+        // Enable manual acknowledgment to ensure messages are processed
+        factory.setAcknowledgeMode(org.springframework.amqp.core.AcknowledgeMode.MANUAL);
+        if (virtualThreads) {
+            // Consumers block on the database most of the time, a virtual thread each is cheap
+            factory.setTaskExecutor(new VirtualThreadTaskExecutor("rabbit-listener-"));
+        }
+        return factory;
+    }
 }
\ No newline at end of file
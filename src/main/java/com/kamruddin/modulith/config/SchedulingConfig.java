@@ -0,0 +1,86 @@
+package com.kamruddin.modulith.config;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledFuture;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.Trigger;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Scheduled tasks run on Spring Boot's task scheduler, but not before the {@link SchemaGate}
+ * opened: a run that is due earlier waits for it, so a task with no initial delay runs right
+ * after the schema bootstrap instead of failing on missing tables.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig implements SchedulingConfigurer {
+
+    private final TaskScheduler taskScheduler;
+    private final SchemaGate schemaGate;
+
+    public SchedulingConfig(TaskScheduler taskScheduler, SchemaGate schemaGate) {
+        this.taskScheduler = taskScheduler;
+        this.schemaGate = schemaGate;
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        registrar.setTaskScheduler(new GatedTaskScheduler());
+    }
+
+    private Runnable gated(Runnable task) {
+        return () -> {
+            try {
+                schemaGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            task.run();
+        };
+    }
+
+    private class GatedTaskScheduler implements TaskScheduler {
+
+        @Override
+        public Clock getClock() {
+            return taskScheduler.getClock();
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable task, Trigger trigger) {
+            return taskScheduler.schedule(gated(task), trigger);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable task, Instant startTime) {
+            return taskScheduler.schedule(gated(task), startTime);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Instant startTime, Duration period) {
+            return taskScheduler.scheduleAtFixedRate(gated(task), startTime, period);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, Duration period) {
+            return taskScheduler.scheduleAtFixedRate(gated(task), period);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Instant startTime, Duration delay) {
+            return taskScheduler.scheduleWithFixedDelay(gated(task), startTime, delay);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, Duration delay) {
+            return taskScheduler.scheduleWithFixedDelay(gated(task), delay);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.kamruddin.modulith.config;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import jakarta.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs the schema scripts next to the context refresh instead of before it, enabled with
+ * schema.bootstrap.async (the fast profile sets it together with spring.sql.init.mode=never).
+ * The scripts are idempotent, so on an existing database they change nothing and the
+ * startup doesn't wait for them. Until they ran, this indicator keeps the instance out of
+ * the readiness group and the {@link SchemaGate} stays closed; a database that is not
+ * reachable yet is retried every retry-interval.
+ */
+@Component
+@ConditionalOnProperty(name = "schema.bootstrap.async", havingValue = "true")
+@Slf4j
+public class SchemaBootstrap implements HealthIndicator {
+
+    private final DataSource dataSource;
+    private final SchemaGate schemaGate;
+    private final Resource[] scripts;
+    private final Duration retryInterval;
+    private volatile Health health = Health.outOfService().withDetail("state", "pending").build();
+
+    public SchemaBootstrap(DataSource dataSource, SchemaGate schemaGate,
+            @Value("${schema.bootstrap.scripts:classpath:schema.sql,classpath:data.sql}") Resource[] scripts,
+            @Value("${schema.bootstrap.retry-interval:5s}") Duration retryInterval) {
+        this.dataSource = dataSource;
+        this.schemaGate = schemaGate;
+        this.scripts = scripts;
+        this.retryInterval = retryInterval;
+    }
+
+    @PostConstruct
+    void start() {
+        Thread.ofVirtual().name("schema-bootstrap").start(this::run);
+    }
+
+    @Override
+    public Health health() {
+        return health;
+    }
+
+    private void run() {
+        long started = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                new ResourceDatabasePopulator(scripts).execute(dataSource);
+                long elapsed = Duration.ofNanos(System.nanoTime() - started).toMillis();
+                health = Health.up().withDetail("elapsedMs", elapsed).build();
+                log.info("Schema bootstrap completed in {} ms", elapsed);
+                schemaGate.open();
+                return;
+            } catch (Exception e) {
+                health = Health.outOfService().withDetail("attempt", attempt).withException(e).build();
+                log.warn("Schema bootstrap attempt {} failed, retrying in {}: {}", attempt, retryInterval, e.getMessage());
+            }
+            try {
+                Thread.sleep(retryInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
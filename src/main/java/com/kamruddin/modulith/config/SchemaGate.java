@@ -0,0 +1,105 @@
+package com.kamruddin.modulith.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Opens once the tables exist: right away, or with schema.bootstrap.async when
+ * {@link SchemaBootstrap} ran the schema scripts. Until then the broker listeners are held
+ * back, scheduled tasks wait ({@link SchedulingConfig}) and startup work that reads the
+ * database is deferred with {@link #whenOpen}.
+ */
+@Component
+@Slf4j
+public class SchemaGate implements SmartLifecycle {
+
+    private final CompletableFuture<Void> opened = new CompletableFuture<>();
+    private final ObjectProvider<RabbitListenerEndpointRegistry> listenerRegistry;
+    private volatile boolean running;
+
+    public SchemaGate(ObjectProvider<RabbitListenerEndpointRegistry> listenerRegistry,
+            @Value("${schema.bootstrap.async:false}") boolean async) {
+        this.listenerRegistry = listenerRegistry;
+        if (!async) {
+            opened.complete(null);
+        }
+    }
+
+    public boolean isOpen() {
+        return opened.isDone();
+    }
+
+    /**
+     * Runs the action now if the gate is open, otherwise on the bootstrap thread when it opens.
+     */
+    public void whenOpen(Runnable action) {
+        opened.thenRun(action);
+    }
+
+    /**
+     * Blocks until the gate is open.
+     */
+    public void await() throws InterruptedException {
+        try {
+            opened.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    void open() {
+        opened.complete(null);
+    }
+
+    // Before the listener registry starts the auto-startup containers. Only these are started
+    // later: RabbitListenerEndpointRegistry.start() would also start the disabled ones.
+    @Override
+    public void start() {
+        running = true;
+        RabbitListenerEndpointRegistry registry = listenerRegistry.getIfAvailable();
+        if (isOpen() || registry == null) {
+            return;
+        }
+        List<MessageListenerContainer> held = new ArrayList<>();
+        for (MessageListenerContainer container : registry.getListenerContainers()) {
+            if (container.isAutoStartup()) {
+                container.setAutoStartup(false);
+                held.add(container);
+            }
+        }
+        log.info("Holding back {} listener containers until the schema bootstrap completed", held.size());
+        whenOpen(() -> held.forEach(container -> {
+            try {
+                container.start();
+            } catch (RuntimeException e) {
+                log.error("Could not start listener container {}", container, e);
+            }
+        }));
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,45 @@
+package com.kamruddin.modulith.config;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records which shard queues this instance is actually receiving from. With single
+ * active consumer queues a subscription alone says nothing about whether this
+ * instance or another replica is the active consumer.
+ */
+@Component
+public class ShardActivity implements MessagePostProcessor {
+
+    private final Map<String, Long> lastDelivery = new ConcurrentHashMap<>();
+
+    @Override
+    public Message postProcessMessage(Message message) throws AmqpException {
+        String queue = message.getMessageProperties().getConsumerQueue();
+        if (queue != null) {
+            lastDelivery.put(queue, System.currentTimeMillis());
+        }
+        return message;
+    }
+
+    /**
+     * @return the shard queues that delivered to this instance since the given time
+     */
+    Set<String> activeSince(long sinceMillis) {
+        return lastDelivery.entrySet().stream()
+                .filter(entry -> entry.getValue() >= sinceMillis)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    void forget(String queue) {
+        lastDelivery.remove(queue);
+    }
+}
@@ -0,0 +1,126 @@
+package com.kamruddin.modulith.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the sharded order event consumers balanced as the topology changes.
+ * <ul>
+ * <li>Shard count lowered: shard queues beyond the new count are unbound from the
+ * consistent-hash exchange, drained by this instance and deleted once empty.</li>
+ * <li>Replica count changed: RabbitMQ makes the first subscriber of a single active
+ * consumer queue the active one, so an instance that is active on more than its fair
+ * share of shards re-subscribes the excess, handing them to a standby replica.</li>
+ * </ul>
+ */
+@Component
+@ConditionalOnExpression(RabbitMQConfig.DISTRIBUTED_SHARDED)
+@RequiredArgsConstructor
+@Slf4j
+public class ShardRebalancer {
+
+    private final AmqpAdmin amqpAdmin;
+    private final RabbitListenerEndpointRegistry listenerRegistry;
+    private final ShardActivity shardActivity;
+
+    @Value("${inventory.sharding.shards:8}")
+    private int shards;
+
+    @Value("${inventory.sharding.max-shards:64}")
+    private int maxShards;
+
+    @Value("${inventory.sharding.rebalance-interval:30000}")
+    private long rebalanceInterval;
+
+    @Scheduled(initialDelayString = "${inventory.sharding.rebalance-interval:30000}",
+            fixedDelayString = "${inventory.sharding.rebalance-interval:30000}")
+    public void rebalance() {
+        MessageListenerContainer listener = listenerRegistry.getListenerContainer(RabbitMQConfig.SHARDED_ORDER_LISTENER_ID);
+        if (!(listener instanceof AbstractMessageListenerContainer container) || !container.isRunning()) {
+            return;
+        }
+        try {
+            drainRetiredShards(container);
+            releaseExcessShards(container);
+        } catch (Exception e) {
+            log.warn("Shard rebalancing failed, retrying in {} ms: {}", rebalanceInterval, e.getMessage());
+        }
+    }
+
+    private void drainRetiredShards(AbstractMessageListenerContainer container) {
+        List<String> consumed = Arrays.asList(container.getQueueNames());
+        for (int shard = shards; shard < maxShards; shard++) {
+            String queue = RabbitMQConfig.shardQueueName(shard);
+            QueueInformation info = amqpAdmin.getQueueInfo(queue);
+            if (info == null) {
+                continue;
+            }
+            // Stop routing new events to the retired shard, the hash ring reassigns its products
+            amqpAdmin.removeBinding(new Binding(queue, Binding.DestinationType.QUEUE,
+                    RabbitMQConfig.ORDER_EVENTS_SHARDED_EXCHANGE, RabbitMQConfig.ORDER_EVENTS_SHARD_WEIGHT, null));
+            if (info.getMessageCount() > 0) {
+                if (!consumed.contains(queue)) {
+                    log.info("Draining {} messages from retired shard {}", info.getMessageCount(), queue);
+                    container.addQueueNames(queue);
+                }
+                continue;
+            }
+            if (consumed.contains(queue)) {
+                container.removeQueueNames(queue);
+            }
+            QueueInformation remaining = amqpAdmin.getQueueInfo(queue);
+            if (remaining != null && remaining.getMessageCount() == 0 && remaining.getConsumerCount() == 0) {
+                log.info("Deleting drained shard {}", queue);
+                amqpAdmin.deleteQueue(queue, false, true);
+            }
+        }
+    }
+
+    private void releaseExcessShards(AbstractMessageListenerContainer container) {
+        int replicas = 1;
+        for (int shard = 0; shard < shards; shard++) {
+            QueueInformation info = amqpAdmin.getQueueInfo(RabbitMQConfig.shardQueueName(shard));
+            if (info != null) {
+                replicas = Math.max(replicas, info.getConsumerCount());
+            }
+        }
+        int fairShare = (shards + replicas - 1) / replicas;
+        Set<String> active = shardActivity.activeSince(System.currentTimeMillis() - rebalanceInterval);
+        active.removeIf(queue -> !queue.startsWith(RabbitMQConfig.ORDER_EVENTS_SHARD_QUEUE_PREFIX)
+                || shardIndex(queue) >= shards);
+        int excess = active.size() - fairShare;
+        if (excess <= 0) {
+            return;
+        }
+
+        List<String> release = new ArrayList<>(active).subList(0, excess);
+        log.info("Active on {} of {} shards with {} replicas, handing over {}",
+                active.size(), shards, replicas, release);
+        for (String queue : release) {
+            // Re-subscribing moves this instance to the back of the single active consumer line
+            container.removeQueueNames(queue);
+            container.addQueueNames(queue);
+            shardActivity.forget(queue);
+        }
+    }
+
+    private static int shardIndex(String queue) {
+        return Integer.parseInt(queue.substring(RabbitMQConfig.ORDER_EVENTS_SHARD_QUEUE_PREFIX.length()));
+    }
+}
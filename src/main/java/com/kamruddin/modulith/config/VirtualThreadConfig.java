@@ -0,0 +1,68 @@
+package com.kamruddin.modulith.config;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Virtual-thread mode, active with spring.threads.virtual.enabled=true. Spring Boot then
+ * runs Tomcat requests and the async module listeners on virtual threads, RabbitMQConfig
+ * does the same for the listener containers, and this configuration caps the concurrent
+ * database work at the Hikari pool size.
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+@Slf4j
+public class VirtualThreadConfig {
+
+    @Bean
+    public static BeanPostProcessor dataSourceConcurrencyLimiter(
+            @Value("${datasource.concurrency.acquire-timeout:30s}") Duration acquireTimeout) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof HikariDataSource hikari) {
+                    log.info("Limiting data source {} to {} concurrent connections", beanName,
+                            hikari.getMaximumPoolSize());
+                    return new ConcurrencyLimitedDataSource(hikari, hikari.getMaximumPoolSize(), acquireTimeout);
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Bean
+    public MeterBinder dataSourceConcurrencyMetrics(DataSource dataSource) {
+        return registry -> {
+            if (dataSource instanceof ConcurrencyLimitedDataSource limited) {
+                Gauge.builder("datasource.concurrency.waiting", limited, ConcurrencyLimitedDataSource::getWaiting)
+                        .description("Threads waiting for a database connection permit")
+                        .register(registry);
+                Gauge.builder("datasource.concurrency.available", limited, ConcurrencyLimitedDataSource::getAvailable)
+                        .description("Database connection permits available")
+                        .register(registry);
+                FunctionTimer.builder("datasource.concurrency.acquire", limited,
+                                ConcurrencyLimitedDataSource::getAcquired,
+                                ConcurrencyLimitedDataSource::getAcquireWaitNanos, TimeUnit.NANOSECONDS)
+                        .description("Time spent waiting for a database connection permit")
+                        .register(registry);
+            }
+        };
+    }
+}
@@ -0,0 +1,217 @@
+package com.kamruddin.modulith.inventory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Pre-serialized product catalog behind the product read endpoints. Every product is kept
+ * as its JSON bytes together with its version; a change notification only marks the
+ * product dirty ({@link ProductViewRefresher}), and the next read reloads just the dirty rows
+ * and reuses the bytes of all others. The whole catalog is assembled and gzipped once per change.
+ * <p>
+ * ETags are derived from product ids and versions only, so every replica hands out the same
+ * tag for the same data and a poll that finds nothing dirty is answered from memory. A
+ * periodic full reload covers notifications lost while the broker was unreachable.
+ */
+@Component
+class CatalogSnapshot implements ProductChangeListener, ProductViewRefresher.View {
+
+    private final ProductRepository productRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+
+    private final ProductViewRefresher refresher;
+
+    private final ConcurrentSkipListMap<Long, Entry> entries = new ConcurrentSkipListMap<>();
+    private volatile long catalogHash;
+    private volatile Catalog catalog;
+
+    CatalogSnapshot(ProductRepository productRepository, ObjectMapper objectMapper,
+            PlatformTransactionManager transactionManager) {
+        this.productRepository = productRepository;
+        this.objectMapper = objectMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.refresher = new ProductViewRefresher(productRepository, this);
+    }
+
+    @Override
+    public void onProductChanged(Long productId, boolean stockOnly) {
+        refresher.markDirty(productId);
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.catalog.reload-interval:60000}",
+            initialDelayString = "${inventory.catalog.reload-interval:60000}")
+    void scheduleReload() {
+        refresher.markAllDirty();
+    }
+
+    /**
+     * @return the whole catalog as a JSON array, ordered by id
+     */
+    Catalog catalog() {
+        refresher.refresh(true);
+        Catalog current = catalog;
+        if (current == null) {
+            current = refresher.locked(() -> {
+                if (catalog == null) {
+                    catalog = assemble(new ArrayList<>(entries.values()), catalogHash);
+                }
+                return catalog;
+            });
+        }
+        return current;
+    }
+
+    /**
+     * @return a keyset page of the catalog, without the gzipped form
+     */
+    Page page(Long after, int limit) {
+        refresher.refresh(true);
+        List<Entry> page = new ArrayList<>(limit);
+        long hash = 0;
+        for (Entry entry : entries.tailMap(after != null ? after : 0L, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(entry);
+            hash += entry.hash();
+        }
+        Long last = page.isEmpty() ? null : page.get(page.size() - 1).id();
+        return new Page(etag(hash, page.size()), join(page), page.size() == limit ? last : null);
+    }
+
+    /**
+     * @return the given products as a JSON array in the given order, unknown ids left out
+     */
+    byte[] products(List<Long> ids) {
+        refresher.refresh(true);
+        List<Entry> found = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                found.add(entry);
+            }
+        }
+        return join(found);
+    }
+
+    Optional<Entry> product(Long id) {
+        refresher.refresh(true);
+        return Optional.ofNullable(entries.get(id));
+    }
+
+    @Override
+    public void reload() {
+        Set<Long> stale = new HashSet<>(entries.keySet());
+        readOnlyTransaction.executeWithoutResult(status -> productRepository.streamAll(product -> {
+            stale.remove(product.getId());
+            Entry current = entries.get(product.getId());
+            if (current == null || current.version() != version(product)) {
+                put(product);
+            }
+        }));
+        stale.forEach(this::remove);
+    }
+
+    @Override
+    public void put(Product product) {
+        try {
+            Entry entry = new Entry(product.getId(), version(product), objectMapper.writeValueAsBytes(product));
+            Entry previous = entries.put(product.getId(), entry);
+            catalogHash += entry.hash() - (previous != null ? previous.hash() : 0);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void remove(Long id) {
+        Entry previous = entries.remove(id);
+        if (previous != null) {
+            catalogHash -= previous.hash();
+        }
+    }
+
+    @Override
+    public void refreshed() {
+        catalog = null;
+    }
+
+    private Catalog assemble(List<Entry> all, long hash) {
+        byte[] json = join(all);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new Catalog(etag(hash, all.size()), json, compressed.toByteArray());
+    }
+
+    private static byte[] join(List<Entry> page) {
+        int size = 2 + Math.max(0, page.size() - 1);
+        for (Entry entry : page) {
+            size += entry.json().length;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        out.write('[');
+        for (int i = 0; i < page.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.writeBytes(page.get(i).json());
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    private static long version(Product product) {
+        return product.getVersion() != null ? product.getVersion() : 0;
+    }
+
+    private static String etag(long hash, int size) {
+        return "\"" + Long.toHexString(hash) + "-" + size + "\"";
+    }
+
+    record Entry(Long id, long version, byte[] json) {
+
+        String etag() {
+            return "\"" + id + "-" + version + "\"";
+        }
+
+        // Order-independent contribution to the catalog tag, updated as products change
+        long hash() {
+            long h = id * 0x9E3779B97F4A7C15L + version;
+            h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+            return h ^ (h >>> 33);
+        }
+    }
+
+    record Catalog(String etag, byte[] json, byte[] gzip) {
+
+        // A strong tag identifies the exact bytes, so the compressed form gets its own
+        String gzipEtag() {
+            return etag.substring(0, etag.length() - 1) + "-gzip\"";
+        }
+    }
+
+    record Page(String etag, byte[] json, Long nextCursor) {
+    }
+}
@@ -1,16 +1,32 @@
 package com.kamruddin.modulith.inventory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Optional;
 
 import jakarta.validation.Valid;
 
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import lombok.RequiredArgsConstructor;
 
@@ -19,24 +35,129 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class InventoryController {
 
+    // Response header carrying the cursor for the next page, absent on the last page
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final int MAX_SEARCH_LIMIT = 100;
+
     private final ProductService productService;
+    private final CatalogSnapshot catalogSnapshot;
+    private final ProductImporter productImporter;
+    private final ProductSearch productSearch;
+    private final ObjectMapper objectMapper;
 
+    // Upsert by id; an update sent with a stale version gets 409 Conflict, one without a version overwrites
     @PostMapping
     public ResponseEntity<Product> addProduct(@Valid @RequestBody Product product) {
         Product saved = productService.save(product);
         return ResponseEntity.ok(saved);
     }
 
+    // Bulk upsert from text/csv (with a header row) or NDJSON, read and written as it streams in
+    @PostMapping(value = "/import", consumes = {"text/csv", MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<ProductImportResult> importProducts(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            InputStream body) {
+        ProductImporter.Format format = MediaType.APPLICATION_NDJSON.includes(contentType)
+                ? ProductImporter.Format.NDJSON
+                : ProductImporter.Format.CSV;
+        return ResponseEntity.ok(productImporter.importProducts(body, format));
+    }
+
+    // Served from the catalog snapshot; a matching If-None-Match is answered with 304
+    // without touching the database or encoding any JSON. Paged only when after or limit
+    // is given, a plain GET still returns the whole catalog
     @GetMapping
-    public ResponseEntity<List<Product>> getAllProducts() {
-        return ResponseEntity.ok(productService.findAll());
+    public ResponseEntity<byte[]> getProducts(
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit,
+            WebRequest request) {
+        if (after == null && limit == null) {
+            CatalogSnapshot.Catalog catalog = catalogSnapshot.catalog();
+            if (request.checkNotModified(catalog.etag())) {
+                return null;
+            }
+            return ResponseEntity.ok().eTag(catalog.etag()).contentType(MediaType.APPLICATION_JSON).body(catalog.json());
+        }
+        int requested = limit != null ? limit : ProductRepositoryCustom.DEFAULT_LIMIT;
+        int pageSize = Math.max(1, Math.min(requested, ProductRepositoryCustom.MAX_LIMIT));
+        CatalogSnapshot.Page page = catalogSnapshot.page(after, pageSize);
+        if (request.checkNotModified(page.etag())) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(page.etag()).contentType(MediaType.APPLICATION_JSON);
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.nextCursor()));
+        }
+        return response.body(page.json());
+    }
+
+    // Whole catalog in one response, pre-serialized and, for clients accepting it, pre-gzipped
+    @GetMapping("/catalog")
+    public ResponseEntity<byte[]> getCatalog(
+            @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest request) {
+        CatalogSnapshot.Catalog catalog = catalogSnapshot.catalog();
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        String etag = gzip ? catalog.gzipEtag() : catalog.etag();
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(catalog.gzip());
+        }
+        return response.body(catalog.json());
+    }
+
+    // Ranked search over names and descriptions, every word also matches as a prefix
+    @GetMapping("/search")
+    public ResponseEntity<byte[]> searchProducts(
+            @RequestParam("q") String query,
+            @RequestParam(defaultValue = "20") int limit) {
+        int size = Math.max(1, Math.min(limit, MAX_SEARCH_LIMIT));
+        List<Long> ids = productSearch.search(query, size).stream()
+                .map(ProductSearchIndex.Hit::productId)
+                .toList();
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(catalogSnapshot.products(ids));
+    }
+
+    // Full catalog export as newline-delimited JSON, written while rows are read from the cursor
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportProducts() {
+        StreamingResponseBody body = out -> productService.streamProducts(product -> writeLine(out, product));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Product> getProduct(@PathVariable Long id) {
-        return productService.findById(id)
-                .map(ResponseEntity::ok)
-                .orElse(ResponseEntity.notFound().build());
+    public ResponseEntity<byte[]> getProduct(@PathVariable Long id, WebRequest request) {
+        Optional<CatalogSnapshot.Entry> product = catalogSnapshot.product(id);
+        if (product.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (request.checkNotModified(product.get().etag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .eTag(product.get().etag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(product.get().json());
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<String> conflict(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).contentType(MediaType.TEXT_PLAIN).body(e.getMessage());
+    }
+
+    private void writeLine(OutputStream out, Product product) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(product));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -2,89 +2,230 @@ package com.kamruddin.modulith.inventory;
 
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.support.AmqpHeaders;
-import org.springframework.integration.support.locks.LockRegistry;
+import org.springframework.dao.DataAccessException;
+import org.springframework.messaging.Message;
 import org.springframework.messaging.handler.annotation.Header;
-import org.springframework.modulith.events.ApplicationModuleListener;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.TransactionException;
 
 import com.kamruddin.modulith.config.RabbitMQConfig;
 import com.kamruddin.modulith.order.OrderPlacedEvent;
 import com.rabbitmq.client.Channel;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Applies OrderPlacedEvents to the stock. In the distributed delivery mode (default) the
+ * broker is the only path: one of the RabbitMQ listeners below consumes the externalized
+ * event. In the local mode {@link LocalOrderPlacedListener} applies it in-process and the
+ * broker listeners stay stopped, the externalized copy is only fanned out to other systems.
+ */
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class InventoryEventListener {
 
+    // autoStartup conditions of the broker listeners
+    private static final String DISTRIBUTED = "'${inventory.delivery.mode:distributed}' == 'distributed'";
+    private static final String BATCH = "${inventory.listener.batch.enabled:false}";
+    private static final String SHARDED = "${inventory.sharding.enabled:false}";
+
+    static final String LOCAL_MODE = "local";
+    static final String DISTRIBUTED_MODE = "distributed";
+
     private final ProductService productService;
-    private final LockRegistry lockRegistry;
+    private final OrderEventRetrier retrier;
+    private final MeterRegistry meterRegistry;
 
-    // Keep the internal event listener for local module communication
-    @ApplicationModuleListener
-    public void handleInternalOrderPlaced(OrderPlacedEvent event) {
-        // This will handle events within the same application instance (non-externalized)
-        processOrderPlacedEvent(event);
-    }
-    
-    // Add RabbitMQ listener for external events from the queue
-    @RabbitListener(queues = RabbitMQConfig.ORDER_EVENTS_QUEUE, containerFactory = "rabbitListenerContainerFactory")
-    @Transactional
+    // Add RabbitMQ listener for external events from the queue. Redeliveries are safe:
+    // the processed-order ledger turns a second delivery of the same order into a no-op.
+    @RabbitListener(id = RabbitMQConfig.ORDER_LISTENER_ID, queues = RabbitMQConfig.ORDER_EVENTS_QUEUE,
+            containerFactory = "rabbitListenerContainerFactory",
+            autoStartup = "#{" + DISTRIBUTED + " and !" + BATCH + " and !" + SHARDED + "}")
     public void handleExternalOrderPlaced(OrderPlacedEvent event, 
                                         Channel channel, 
-                                        @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+                                        @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+                                        @Header(AmqpHeaders.CONSUMER_QUEUE) String queue,
+                                        @Header(name = RabbitMQConfig.RETRY_ATTEMPT_HEADER, required = false) Integer attempt) {
         log.info("=== RECEIVED EXTERNALIZED OrderPlacedEvent via RabbitMQ ===");
-        
-        // Create a lock key based on the order ID to prevent concurrent processing
-        String lockKey = "order-" + event.getOrderId();
-        Lock lock = lockRegistry.obtain(lockKey);
-        
+        processDelivery(event, channel, deliveryTag, queue, attempt, "single");
+    }
+    
+    // Batched alternative to handleExternalOrderPlaced, enabled with inventory.listener.batch.enabled
+    @RabbitListener(id = RabbitMQConfig.BATCH_ORDER_LISTENER_ID, queues = RabbitMQConfig.ORDER_EVENTS_QUEUE,
+            containerFactory = "batchRabbitListenerContainerFactory",
+            autoStartup = "#{" + DISTRIBUTED + " and " + BATCH + " and !" + SHARDED + "}")
+    public void handleExternalOrderPlacedBatch(List<Message<OrderPlacedEvent>> messages, Channel channel) {
+        log.info("=== RECEIVED BATCH OF {} OrderPlacedEvents via RabbitMQ ===", messages.size());
+
+        List<StockDemand> demands = new ArrayList<>(messages.size());
+        for (Message<OrderPlacedEvent> message : messages) {
+            demands.add(toDemand(message.getPayload()));
+        }
+
+        long lastDeliveryTag = deliveryTag(messages.get(messages.size() - 1));
         try {
-            // Try to acquire the lock with a timeout
-            if (lock.tryLock(10, TimeUnit.SECONDS)) {
-                try {
-                    processOrderPlacedEvent(event);
-                    // Acknowledge successful processing
-                    channel.basicAck(deliveryTag, false);
-                } finally {
-                    // Always release the lock when done
-                    lock.unlock();
+            Map<StockDemand, StockUpdateResult> failed = productService.updateStockBatch(demands);
+
+            for (int i = 0; i < messages.size(); i++) {
+                Message<OrderPlacedEvent> message = messages.get(i);
+                OrderPlacedEvent event = message.getPayload();
+                StockUpdateResult result = failed.get(demands.get(i));
+                if (result == StockUpdateResult.INSUFFICIENT_STOCK) {
+                    log.error("Failed to update stock for product {} in order {}", event.getProductId(), event.getOrderId());
+                    retrier.fail(event, OrderEventRetrier.INSUFFICIENT_STOCK);
+                } else if (result == StockUpdateResult.STOCK_LEASED) {
+                    retrier.retry(event, message.getHeaders().get(AmqpHeaders.CONSUMER_QUEUE, String.class),
+                            attempt(message.getHeaders().get(RabbitMQConfig.RETRY_ATTEMPT_HEADER, Integer.class)),
+                            stockLeased(event));
+                } else {
+                    recordDeliveryLatency(event, DISTRIBUTED_MODE);
                 }
-            } else {
-                // If we couldn't get the lock, reject the message and requeue
-                log.warn("Could not acquire lock for order {}. Message will be requeued.", event.getOrderId());
-                channel.basicNack(deliveryTag, false, true);
             }
+            // Out-of-stock orders are settled for good and leased-out ones are parked in a retry
+            // tier, so one multiple-ack covers the whole batch
+            channel.basicAck(lastDeliveryTag, true);
+            log.info("Processed batch of {} orders, {} not applied", messages.size(), failed.size());
         } catch (Exception e) {
+            log.error("Error processing batch of {} OrderPlacedEvents: {}", messages.size(), e.getMessage(), e);
+            // The transaction rolled back, so every event of the batch takes the retry path
             try {
-                log.error("Error processing OrderPlacedEvent for order {}: {}", event.getOrderId(), e.getMessage(), e);
-                // Negative acknowledgment, requeue the message
-                channel.basicNack(deliveryTag, false, true);
+                for (Message<OrderPlacedEvent> message : messages) {
+                    retrier.retry(message.getPayload(), message.getHeaders().get(AmqpHeaders.CONSUMER_QUEUE, String.class),
+                            attempt(message.getHeaders().get(RabbitMQConfig.RETRY_ATTEMPT_HEADER, Integer.class)), e);
+                }
+                channel.basicAck(lastDeliveryTag, true);
             } catch (Exception ex) {
-                log.error("Error during message rejection: {}", ex.getMessage(), ex);
+                requeue(channel, lastDeliveryTag, true, "batch", reason(e), messages.size(), ex);
             }
         }
     }
-    
+
+    // Sharded alternative, enabled with inventory.sharding.enabled. Every shard queue has a
+    // single active consumer, so one product's events are applied in order by one consumer.
+    @RabbitListener(id = RabbitMQConfig.SHARDED_ORDER_LISTENER_ID, queues = "#{@orderEventShardQueueNames}",
+            containerFactory = "shardedRabbitListenerContainerFactory",
+            autoStartup = "#{" + DISTRIBUTED + " and " + SHARDED + "}")
+    public void handleShardedOrderPlaced(OrderPlacedEvent event,
+                                         Channel channel,
+                                         @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+                                         @Header(AmqpHeaders.CONSUMER_QUEUE) String queue,
+                                         @Header(name = RabbitMQConfig.RETRY_ATTEMPT_HEADER, required = false) Integer attempt) {
+        processDelivery(event, channel, deliveryTag, queue, attempt, "sharded");
+    }
+
+    // Acknowledge only after the stock update committed. A failed delivery is parked in a
+    // delayed retry tier (or dead-lettered) and acknowledged once the broker confirmed that
+    // copy, so it cannot hot-loop through the consumers; it is only requeued right away if
+    // the copy was not confirmed.
+    private void processDelivery(OrderPlacedEvent event, Channel channel, long deliveryTag, String queue,
+            Integer attempt, String listener) {
+        try {
+            processOrderPlacedEvent(event, DISTRIBUTED_MODE);
+            channel.basicAck(deliveryTag, false);
+        } catch (Exception e) {
+            log.error("Error processing OrderPlacedEvent for order {}: {}", event.getOrderId(), e.getMessage(), e);
+            try {
+                retrier.retry(event, queue, attempt(attempt), e);
+                channel.basicAck(deliveryTag, false);
+            } catch (Exception ex) {
+                requeue(channel, deliveryTag, false, listener, reason(e), 1, ex);
+            }
+        }
+    }
+
+    private void requeue(Channel channel, long deliveryTag, boolean multiple, String listener, String reason,
+            int count, Exception cause) {
+        log.error("Could not schedule a retry, requeueing: {}", cause.getMessage(), cause);
+        try {
+            channel.basicNack(deliveryTag, multiple, true);
+            countNacks(listener, reason, count);
+        } catch (Exception ex) {
+            log.error("Error during message rejection: {}", ex.getMessage(), ex);
+        }
+    }
+
+    private static int attempt(Integer header) {
+        return header != null ? header : 0;
+    }
+
+    private static long deliveryTag(Message<?> message) {
+        return message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+    }
+
+    private static StockDemand toDemand(OrderPlacedEvent event) {
+        return new StockDemand(event.getOrderId(), event.getProductId(), event.getQuantity());
+    }
+
+    private void countNacks(String listener, String reason, int count) {
+        Counter.builder("inventory.order.nacks")
+                .description("Order event deliveries requeued because no retry could be scheduled")
+                .tag("listener", listener)
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment(count);
+    }
+
+    private static String reason(Exception e) {
+        if (e instanceof DataAccessException || e instanceof TransactionException) {
+            return "database";
+        }
+        return "error";
+    }
+
+    // Time from order placement to the stock update, to compare the delivery modes
+    private void recordDeliveryLatency(OrderPlacedEvent event, String mode) {
+        if (event.getPlacedAt() != null) {
+            Timer.builder("inventory.order.delivery.latency")
+                    .description("Time from order placement until its stock update is applied")
+                    .tag("mode", mode)
+                    .register(meterRegistry)
+                    .record(Duration.between(event.getPlacedAt(), Instant.now()));
+        }
+    }
+
     // Common processing logic for both internal and external events
-    private void processOrderPlacedEvent(OrderPlacedEvent event) {
+    void processOrderPlacedEvent(OrderPlacedEvent event, String mode) {
         log.info("Event details - Order ID: {}, Product ID: {}, Quantity: {}", 
                 event.getOrderId(), event.getProductId(), event.getQuantity());
-        log.info("Processing inventory update...");
 
-        boolean success = productService.updateStock(event.getProductId(), event.getQuantity());
-        if (!success) {
-            log.error("Failed to update stock for product {} in order {}", 
-                    event.getProductId(), event.getOrderId());
-            throw new RuntimeException("Insufficient stock for product " + event.getProductId());
+        // Recently applied orders are answered from memory, without a database round trip
+        if (productService.isKnownDuplicate(event.getOrderId())) {
+            log.info("Order {} was already applied, skipping duplicate delivery", event.getOrderId());
+            return;
+        }
+
+        log.info("Processing inventory update...");
+        StockUpdateResult result = productService.applyOrder(toDemand(event));
+        switch (result) {
+            case APPLIED -> {
+                recordDeliveryLatency(event, mode);
+                log.info("Successfully updated stock for order {}", event.getOrderId());
+            }
+            case DUPLICATE -> log.info("Order {} was already applied, skipping duplicate delivery", event.getOrderId());
+            case INSUFFICIENT_STOCK -> {
+                // Retrying cannot help, the order fails and its delivery is settled
+                log.error("Failed to update stock for product {} in order {}", 
+                        event.getProductId(), event.getOrderId());
+                retrier.fail(event, OrderEventRetrier.INSUFFICIENT_STOCK);
+            }
+            // Takes the retry path of the delivery (distributed) or of the publication (local)
+            case STOCK_LEASED -> throw stockLeased(event);
         }
-        
-        log.info("Successfully updated stock for order {}", event.getOrderId());
     }
-}
\ No newline at end of file
+
+    private static IllegalStateException stockLeased(OrderPlacedEvent event) {
+        return new IllegalStateException("Stock of product " + event.getProductId() + " for order "
+                + event.getOrderId() + " is still held by stock leases");
+    }
+}
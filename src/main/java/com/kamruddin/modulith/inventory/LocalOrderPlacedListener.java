@@ -0,0 +1,49 @@
+package com.kamruddin.modulith.inventory;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.modulith.events.ApplicationModuleListener;
+import org.springframework.stereotype.Component;
+
+import com.kamruddin.modulith.order.OrderBatchPlacedEvent;
+import com.kamruddin.modulith.order.OrderPlacedEvent;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * In-process fast path for inventory.delivery.mode=local: the order's own instance applies
+ * the stock update after the order commits, without a broker round trip. Only registered
+ * in local mode, so in distributed mode no event publication is tracked for it.
+ */
+@Component
+@ConditionalOnProperty(name = "inventory.delivery.mode", havingValue = InventoryEventListener.LOCAL_MODE)
+@RequiredArgsConstructor
+class LocalOrderPlacedListener {
+
+    private final InventoryEventListener inventoryEventListener;
+
+    @ApplicationModuleListener
+    public void handleInternalOrderPlaced(OrderPlacedEvent event) {
+        inventoryEventListener.processOrderPlacedEvent(event, InventoryEventListener.LOCAL_MODE);
+    }
+
+    // One publication for the batch: if an order fails, the whole batch is resubmitted and the
+    // orders already applied are skipped as duplicates
+    @ApplicationModuleListener
+    public void handleInternalOrderBatchPlaced(OrderBatchPlacedEvent batch) {
+        RuntimeException failure = null;
+        for (OrderPlacedEvent event : batch.events()) {
+            try {
+                inventoryEventListener.processOrderPlacedEvent(event, InventoryEventListener.LOCAL_MODE);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
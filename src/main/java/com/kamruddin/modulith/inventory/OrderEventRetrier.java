@@ -0,0 +1,123 @@
+package com.kamruddin.modulith.inventory;
+
+import java.time.Duration;
+
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.kamruddin.modulith.config.RabbitMQConfig;
+import com.kamruddin.modulith.order.OrderPlacedEvent;
+import com.kamruddin.modulith.order.OrderService;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Settles order events that could not be applied, without blocking the consumer. Transient
+ * failures are republished to the next delayed retry tier and come back to their queue
+ * later (events of a shard are hashed onto the current shards again); once the tiers are
+ * used up, the event goes to the dead-letter queue. Business failures are terminal right
+ * away. Either way the order is marked FAILED. Republishing waits for the broker's confirm,
+ * so the caller only acknowledges the original delivery once its copy is safe.
+ */
+@Component
+@Slf4j
+class OrderEventRetrier {
+
+    static final String INSUFFICIENT_STOCK = "insufficient_stock";
+
+    private final RabbitTemplate rabbitTemplate;
+    private final OrderService orderService;
+    private final MeterRegistry meterRegistry;
+    private final Duration[] retryDelays;
+    private final Duration confirmTimeout;
+
+    OrderEventRetrier(RabbitTemplate rabbitTemplate, OrderService orderService, MeterRegistry meterRegistry,
+            @Value("${inventory.retry.delays:1s,5s,30s}") Duration[] retryDelays,
+            @Value("${inventory.retry.confirm-timeout:5s}") Duration confirmTimeout) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.orderService = orderService;
+        this.meterRegistry = meterRegistry;
+        this.retryDelays = retryDelays;
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    /**
+     * Republish a delivery that failed for a transient reason.
+     *
+     * @param queue the queue the event was consumed from, where the retry returns to
+     * @param attempt retries the event already went through
+     * @throws org.springframework.amqp.AmqpException if the broker did not confirm the copy
+     */
+    void retry(OrderPlacedEvent event, String queue, int attempt, Exception cause) {
+        String reason = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        if (attempt < retryDelays.length) {
+            String target = queue != null && queue.startsWith(RabbitMQConfig.ORDER_EVENTS_SHARD_QUEUE_PREFIX)
+                    ? RabbitMQConfig.ORDER_EVENTS_SHARDED_EXCHANGE : queue;
+            publish(RabbitMQConfig.ORDER_RETRY_TIER_EXCHANGE,
+                    RabbitMQConfig.ORDER_PLACED_ROUTING_KEY_PREFIX + event.getProductId(), event, message -> {
+                        message.getMessageProperties().setHeader(RabbitMQConfig.RETRY_TIER_HEADER, String.valueOf(attempt));
+                        message.getMessageProperties().setHeader(RabbitMQConfig.RETRY_TARGET_HEADER, target);
+                        return message;
+                    }, attempt + 1, reason);
+            log.warn("Order {} will be retried in {} (attempt {}): {}",
+                    event.getOrderId(), retryDelays[attempt], attempt + 1, reason);
+            count("retried", attempt + 1);
+            return;
+        }
+        // Default exchange, so the routing key is the dead-letter queue itself
+        publish("", RabbitMQConfig.ORDER_DEAD_LETTER_QUEUE, event, message -> {
+            message.getMessageProperties().setHeader(RabbitMQConfig.RETRY_TARGET_HEADER, queue);
+            return message;
+        }, attempt, reason);
+        log.error("Order {} dead-lettered after {} retries: {}", event.getOrderId(), attempt, reason);
+        count("dead_lettered", attempt);
+        markFailed(event, "retries exhausted: " + reason);
+    }
+
+    /**
+     * Give up on an order that can never be applied, e.g. because its product is out of stock.
+     */
+    void fail(OrderPlacedEvent event, String reason) {
+        count(reason, 0);
+        markFailed(event, reason);
+    }
+
+    private void publish(String exchange, String routingKey, OrderPlacedEvent event, MessagePostProcessor route,
+            int attempt, String reason) {
+        rabbitTemplate.invoke(operations -> {
+            operations.convertAndSend(exchange, routingKey, event, message -> {
+                message.getMessageProperties().setHeader(RabbitMQConfig.RETRY_ATTEMPT_HEADER, attempt);
+                message.getMessageProperties().setHeader(RabbitMQConfig.FAILURE_REASON_HEADER, abbreviate(reason));
+                return route.postProcessMessage(message);
+            });
+            if (rabbitTemplate.getConnectionFactory().isSimplePublisherConfirms()) {
+                operations.waitForConfirmsOrDie(confirmTimeout.toMillis());
+            }
+            return null;
+        });
+    }
+
+    private void markFailed(OrderPlacedEvent event, String reason) {
+        if (event.getOrderId() != null) {
+            orderService.markFailed(event.getOrderId(), abbreviate(reason));
+        }
+    }
+
+    private void count(String outcome, int attempt) {
+        Counter.builder("inventory.order.failures")
+                .description("Order events retried, dead-lettered or rejected for a business reason")
+                .tag("outcome", outcome)
+                .tag("attempt", String.valueOf(attempt))
+                .register(meterRegistry)
+                .increment();
+    }
+
+    // Fits the failure_reason column
+    private static String abbreviate(String reason) {
+        return reason.length() > 255 ? reason.substring(0, 255) : reason;
+    }
+}
@@ -0,0 +1,155 @@
+package com.kamruddin.modulith.inventory;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Ledger of orders whose stock update has been applied. The row is written in the same
+ * transaction as the stock update, so an order is applied at most once no matter how
+ * often its OrderPlacedEvent is redelivered. A bounded in-memory cache of recently
+ * committed order ids answers most duplicates without a database round trip.
+ * <p>
+ * Rows older than the retention are purged in chunks, each in its own statement, like
+ * completed event publications. The retention bounds how late a redelivered event is still
+ * recognized; rows of leases that are not closed yet are kept whatever their age.
+ */
+@Component
+@Slf4j
+class ProcessedOrderLedger {
+
+    private static final String RECORD_SQL =
+            "INSERT INTO processed_order_events (order_id, product_id, quantity, lease_id) VALUES (?, ?, ?, ?) "
+            + "ON CONFLICT (order_id) DO NOTHING";
+
+    private static final String PURGEABLE_SQL =
+            "SELECT order_id FROM processed_order_events e WHERE processed_at < ? AND (lease_id IS NULL "
+            + "OR NOT EXISTS (SELECT 1 FROM stock_leases l WHERE l.id = e.lease_id AND l.state <> 'CLOSED')) "
+            + "ORDER BY processed_at LIMIT ?";
+    private static final String DELETE_SQL = "DELETE FROM processed_order_events WHERE order_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<Long, Boolean> recentlyProcessed;
+    private final Duration retention;
+    private final int purgeChunkSize;
+    private final Counter purged;
+
+    ProcessedOrderLedger(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+            @Value("${inventory.ledger.cache-size:100000}") long cacheSize,
+            @Value("${inventory.ledger.cache-ttl:1h}") Duration cacheTtl,
+            @Value("${inventory.ledger.retention:7d}") Duration retention,
+            @Value("${inventory.ledger.purge-chunk-size:1000}") int purgeChunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.recentlyProcessed = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(cacheTtl)
+                .build();
+        this.retention = retention;
+        this.purgeChunkSize = purgeChunkSize;
+        this.purged = Counter.builder("inventory.ledger.purged")
+                .description("Processed-order ledger rows removed after the retention")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return whether the order is known to be applied already, without touching the database
+     */
+    boolean isKnownDuplicate(Long orderId) {
+        return orderId != null && recentlyProcessed.getIfPresent(orderId) != null;
+    }
+
+    /**
+     * Record the order in the current transaction.
+     *
+     * @return {@code false} if the order was already recorded by a committed transaction
+     */
+    boolean record(Long orderId, Long productId, int quantity) {
+        return record(orderId, productId, quantity, null);
+    }
+
+    /**
+     * Record an order served from a stock lease, the ledger rows of a lease add up to what
+     * it sold.
+     */
+    boolean record(Long orderId, Long productId, int quantity, UUID leaseId) {
+        if (jdbcTemplate.update(RECORD_SQL, orderId, productId, quantity, leaseId) == 0) {
+            recentlyProcessed.put(orderId, Boolean.TRUE);
+            return false;
+        }
+        // Only remember the order once the stock update is durable
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recentlyProcessed.put(orderId, Boolean.TRUE);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Remove an order recorded in the current transaction whose stock update was rejected.
+     */
+    void forget(Long orderId) {
+        jdbcTemplate.update("DELETE FROM processed_order_events WHERE order_id = ?", orderId);
+        // Runs after the afterCommit registered by record, synchronizations keep their order
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    recentlyProcessed.invalidate(orderId);
+                }
+            });
+        }
+    }
+
+    @Scheduled(initialDelayString = "${inventory.ledger.purge-interval:300000}",
+            fixedDelayString = "${inventory.ledger.purge-interval:300000}")
+    void purge() {
+        try {
+            Timestamp before = Timestamp.from(Instant.now().minus(retention));
+            long total = 0;
+            int removed;
+            do {
+                removed = purgeChunk(before);
+                total += removed;
+            } while (removed == purgeChunkSize);
+
+            if (total > 0) {
+                log.info("Purged {} processed-order ledger rows older than {}", total, retention);
+            }
+        } catch (Exception e) {
+            log.warn("Processed-order ledger purge failed: {}", e.getMessage());
+        }
+    }
+
+    // One auto-committed batch per chunk, so the purge holds no long transaction; replicas
+    // purging the same chunk only find fewer rows to delete
+    private int purgeChunk(Timestamp before) {
+        List<Object[]> ids = jdbcTemplate.queryForList(PURGEABLE_SQL, Long.class, before, purgeChunkSize).stream()
+                .map(id -> new Object[] {id})
+                .toList();
+        if (!ids.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_SQL, ids);
+            purged.increment(ids.size());
+        }
+        return ids.size();
+    }
+}
@@ -8,6 +8,7 @@ import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.relational.core.mapping.Table;
 
 import lombok.AllArgsConstructor;
@@ -30,5 +31,9 @@ public class Product {
     @Min(value = 0, message = "Stock quantity cannot be negative")
     private Integer stockQuantity;
     private LocalDateTime createdAt;
+    // Bumped by every write, stock updates included; drives the catalog ETags
+    @Version
+    private Long version;
+    private LocalDateTime updatedAt;
 
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.kamruddin.modulith.inventory;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Keeps the product read caches in front of {@link ProductRepository} consistent with writes.
+ * Every write bumps the product's version and is announced once it committed, so a cached
+ * product is evicted as soon as its version is outdated, on this node and, through the
+ * broadcast, on every other replica. The full list is cleared when products are added, removed
+ * or edited, but not on stock-only changes: these come with every order, and the list shows
+ * the stock as of its caching, at most the cache TTL old.
+ */
+@Component
+@RequiredArgsConstructor
+class ProductCacheEvictor implements ProductChangeListener {
+
+    static final String PRODUCTS_CACHE = "products";
+    static final String PRODUCT_LIST_CACHE = "productList";
+
+    private final CacheManager cacheManager;
+
+    @Override
+    public void onProductChanged(Long productId, boolean stockOnly) {
+        Cache products = cacheManager.getCache(PRODUCTS_CACHE);
+        if (products != null) {
+            if (productId != null) {
+                products.evict(productId);
+            } else {
+                products.clear();
+            }
+        }
+        if (stockOnly) {
+            return;
+        }
+        Cache list = cacheManager.getCache(PRODUCT_LIST_CACHE);
+        if (list != null) {
+            list.clear();
+        }
+    }
+}
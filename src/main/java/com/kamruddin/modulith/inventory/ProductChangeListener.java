@@ -0,0 +1,15 @@
+package com.kamruddin.modulith.inventory;
+
+/**
+ * Callback for components holding derived product state (caches, snapshots, indexes) that must
+ * be refreshed when a product changes on this node or on any other replica.
+ */
+interface ProductChangeListener {
+
+    /**
+     * @param productId the changed product, or {@code null} if any product may have changed
+     * @param stockOnly whether only the stock quantity changed, as on every order
+     */
+    void onProductChanged(Long productId, boolean stockOnly);
+
+}
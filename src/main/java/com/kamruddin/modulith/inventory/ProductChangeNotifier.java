@@ -0,0 +1,89 @@
+package com.kamruddin.modulith.inventory;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.kamruddin.modulith.config.RabbitMQConfig;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fans product changes out to the local {@link ProductChangeListener}s and, through the
+ * modulith exchange, to every other replica. Notifications are deferred until the
+ * surrounding transaction commits so readers never reload the old row.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProductChangeNotifier {
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final RabbitTemplate rabbitTemplate;
+    private final List<ProductChangeListener> listeners;
+
+    // Single-instance deployments and benchmarks can skip the broker round trip
+    @Value("${inventory.product-changes.broadcast:true}")
+    private boolean broadcast;
+
+    public void productChanged(Long productId) {
+        changed(productId, false);
+    }
+
+    /**
+     * A change of the stock quantity alone; listeners keep what doesn't show the stock.
+     */
+    public void stockChanged(Long productId) {
+        changed(productId, true);
+    }
+
+    private void changed(Long productId, boolean stockOnly) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish(productId, stockOnly);
+                }
+            });
+        } else {
+            publish(productId, stockOnly);
+        }
+    }
+
+    // Every replica binds its own auto-delete queue, so each one sees every change
+    @RabbitListener(queues = "#{productChangesQueue.name}", ackMode = "AUTO", concurrency = "1",
+            autoStartup = "${inventory.product-changes.broadcast:true}")
+    public void handleRemoteChange(ProductChangedMessage message) {
+        if (!nodeId.equals(message.origin())) {
+            notifyListeners(message.productId(), message.stockOnly());
+        }
+    }
+
+    private void publish(Long productId, boolean stockOnly) {
+        notifyListeners(productId, stockOnly);
+        if (!broadcast) {
+            return;
+        }
+        try {
+            rabbitTemplate.convertAndSend(RabbitMQConfig.MODULITH_EXCHANGE,
+                    RabbitMQConfig.PRODUCT_CHANGES_ROUTING_KEY, new ProductChangedMessage(nodeId, productId, stockOnly));
+        } catch (Exception e) {
+            // Other replicas fall back to their periodic full reloads
+            log.warn("Could not broadcast change of product {}: {}", productId, e.getMessage());
+        }
+    }
+
+    private void notifyListeners(Long productId, boolean stockOnly) {
+        for (ProductChangeListener listener : listeners) {
+            listener.onProductChanged(productId, stockOnly);
+        }
+    }
+}
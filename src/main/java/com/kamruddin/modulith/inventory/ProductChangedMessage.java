@@ -0,0 +1,11 @@
+package com.kamruddin.modulith.inventory;
+
+/**
+ * Broadcast over the modulith exchange so every replica can invalidate its product state.
+ *
+ * @param origin the node that made the change
+ * @param productId the changed product, or {@code null} if any product may have changed
+ * @param stockOnly whether only the stock quantity changed
+ */
+record ProductChangedMessage(String origin, Long productId, boolean stockOnly) {
+}
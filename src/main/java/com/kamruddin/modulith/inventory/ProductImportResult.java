@@ -0,0 +1,25 @@
+package com.kamruddin.modulith.inventory;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk product import.
+ *
+ * @param rows data rows read from the request
+ * @param imported rows inserted or updated
+ * @param rejected rows that failed validation and were skipped
+ * @param errors validation errors of rejected rows, at most inventory.import.max-errors
+ * @param errorsTruncated whether more rows were rejected than errors are listed
+ * @param elapsedMillis time from the first byte read until the import committed
+ * @param rowsPerSecond rows read per second
+ */
+public record ProductImportResult(long rows, long imported, long rejected, List<RowError> errors,
+        boolean errorsTruncated, long elapsedMillis, double rowsPerSecond) {
+
+    /**
+     * @param row one-based position of the data row, not counting a CSV header
+     * @param errors what is wrong with the row
+     */
+    public record RowError(long row, List<String> errors) {
+    }
+}
@@ -0,0 +1,507 @@
+package com.kamruddin.modulith.inventory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streaming bulk import of products from CSV (header row naming the columns) or NDJSON.
+ * Rows are read, validated against the {@link Product} constraints and collected into
+ * chunks of chunk-size rows, so memory use does not grow with the size of the upload. Every
+ * chunk is written and committed in a transaction of its own:
+ * <ul>
+ * <li>On PostgreSQL with COPY into a temporary staging table dropped at commit, from which
+ * products are updated and inserted.</li>
+ * <li>Elsewhere (H2 in tests and local runs) with JDBC batches.</li>
+ * </ul>
+ * Rows with an id update that product, or insert it with that id; rows without one insert a
+ * new product. An update keeps the description and stock of the product where the row has
+ * none. Invalid rows are skipped and reported. While stock allotments are enabled, rows with
+ * an id can't set the stock: part of it is leased out, and the unsold rest of the leases would
+ * be added back on top of the imported quantity.
+ */
+@Component
+@Slf4j
+class ProductImporter {
+
+    enum Format { CSV, NDJSON }
+
+    // Once per chunk, in the chunk's transaction
+    private static final String CREATE_STAGING_SQL =
+            "CREATE TEMP TABLE product_import (line BIGINT, id BIGINT, name VARCHAR(100), description TEXT, "
+            + "price DECIMAL(10,2), stock_quantity INTEGER) ON COMMIT DROP";
+    private static final String COPY_SQL =
+            "COPY product_import (line, id, name, description, price, stock_quantity) FROM STDIN WITH (FORMAT csv)";
+    // The last row of an id wins; a missing description or stock keeps the current one
+    private static final String UPDATE_FROM_STAGING_SQL =
+            "UPDATE products p SET name = s.name, description = COALESCE(s.description, p.description), "
+            + "price = s.price, stock_quantity = COALESCE(s.stock_quantity, p.stock_quantity), "
+            + "version = p.version + 1, updated_at = CURRENT_TIMESTAMP "
+            + "FROM (SELECT DISTINCT ON (id) id, name, description, price, stock_quantity "
+            + "FROM product_import WHERE id IS NOT NULL ORDER BY id, line DESC) s WHERE p.id = s.id";
+    // Ids not updated above, the updated ones conflict
+    private static final String INSERT_WITH_ID_FROM_STAGING_SQL =
+            "INSERT INTO products (id, name, description, price, stock_quantity, updated_at) "
+            + "SELECT DISTINCT ON (id) id, name, description, price, COALESCE(stock_quantity, 0), CURRENT_TIMESTAMP "
+            + "FROM product_import WHERE id IS NOT NULL ORDER BY id, line DESC ON CONFLICT (id) DO NOTHING";
+    private static final String INSERT_NEW_SQL =
+            "INSERT INTO products (name, description, price, stock_quantity, updated_at) "
+            + "SELECT name, description, price, COALESCE(stock_quantity, 0), CURRENT_TIMESTAMP "
+            + "FROM product_import WHERE id IS NULL ORDER BY line";
+    // Explicit ids bypass the sequence, move it past them so later inserts don't collide
+    private static final String SYNC_SEQUENCE_SQL =
+            "SELECT setval(pg_get_serial_sequence('products', 'id'), GREATEST((SELECT MAX(id) FROM products), 1))";
+
+    private static final String UPDATE_SQL =
+            "UPDATE products SET name = ?, description = COALESCE(?, description), price = ?, "
+            + "stock_quantity = COALESCE(?, stock_quantity), version = version + 1, "
+            + "updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+    private static final String INSERT_WITH_ID_SQL =
+            "INSERT INTO products (id, name, description, price, stock_quantity, updated_at) "
+            + "VALUES (?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+    private static final String INSERT_SQL =
+            "INSERT INTO products (name, description, price, stock_quantity, updated_at) "
+            + "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Validator validator;
+    private final ObjectMapper objectMapper;
+    private final ProductChangeNotifier changeNotifier;
+    private final StockAllotments allotments;
+    private final Counter importedRows;
+    private final Counter rejectedRows;
+    private final int chunkSize;
+    private final int maxErrors;
+
+    ProductImporter(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, Validator validator,
+            ObjectMapper objectMapper, ProductChangeNotifier changeNotifier, StockAllotments allotments,
+            MeterRegistry meterRegistry,
+            @Value("${inventory.import.chunk-size:10000}") int chunkSize,
+            @Value("${inventory.import.max-errors:1000}") int maxErrors) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.validator = validator;
+        this.objectMapper = objectMapper;
+        this.changeNotifier = changeNotifier;
+        this.allotments = allotments;
+        this.importedRows = importCounter(meterRegistry, "imported");
+        this.rejectedRows = importCounter(meterRegistry, "rejected");
+        this.chunkSize = chunkSize;
+        this.maxErrors = maxErrors;
+    }
+
+    ProductImportResult importProducts(InputStream body, Format format) {
+        long started = System.nanoTime();
+        Progress progress = new Progress();
+        boolean postgres = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                connection.isWrapperFor(PGConnection.class)));
+        RowSink sink = postgres ? new CopySink(progress) : new BatchSink(progress);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        try {
+            if (format == Format.CSV) {
+                readCsv(reader, progress, sink);
+            } else {
+                readNdjson(reader, progress, sink);
+            }
+            sink.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            log.warn("Product import failed after {} rows, {} of them committed", progress.rows, progress.imported);
+            throw e;
+        } finally {
+            // Any product may have changed: caches, catalog snapshots and search indexes reload
+            if (progress.imported > 0) {
+                changeNotifier.productChanged(null);
+            }
+        }
+
+        importedRows.increment(progress.imported);
+        rejectedRows.increment(progress.rejected);
+        long elapsedNanos = System.nanoTime() - started;
+        double rowsPerSecond = progress.rows / Math.max(elapsedNanos / 1e9, 1e-9);
+        log.info("Imported {} of {} products ({} rejected) in {} ms, {} rows/s", progress.imported, progress.rows,
+                progress.rejected, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), Math.round(rowsPerSecond));
+        return new ProductImportResult(progress.rows, progress.imported, progress.rejected, progress.errors,
+                progress.rejected > progress.errors.size(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                rowsPerSecond);
+    }
+
+    private void readCsv(BufferedReader reader, Progress progress, RowSink sink) throws IOException {
+        List<String> header = readCsvRecord(reader);
+        if (header == null) {
+            return;
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim().toLowerCase(Locale.ROOT).replace("_", ""), i);
+        }
+        List<String> record;
+        while ((record = readCsvRecord(reader)) != null) {
+            if (record.size() == 1 && record.get(0).isBlank()) {
+                continue;
+            }
+            long row = ++progress.rows;
+            List<String> errors = new ArrayList<>();
+            Product product = new Product();
+            product.setId(parse(column(record, columns, "id"), Long::valueOf, "id", errors));
+            product.setName(column(record, columns, "name"));
+            product.setDescription(column(record, columns, "description"));
+            product.setPrice(parse(column(record, columns, "price"), BigDecimal::new, "price", errors));
+            product.setStockQuantity(parse(column(record, columns, "stockquantity"), Integer::valueOf,
+                    "stock_quantity", errors));
+            accept(row, product, errors, progress, sink);
+        }
+    }
+
+    private void readNdjson(BufferedReader reader, Progress progress, RowSink sink) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            long row = ++progress.rows;
+            List<String> errors = new ArrayList<>();
+            Product product = new Product();
+            try {
+                JsonNode node = objectMapper.readTree(line);
+                JsonNode id = number(node, "id", "id", errors);
+                if (id != null) {
+                    product.setId(id.isIntegralNumber() && id.canConvertToLong() ? id.longValue() : null);
+                    if (product.getId() == null) {
+                        errors.add("Invalid id: " + id);
+                    }
+                }
+                product.setName(node.hasNonNull("name") ? node.get("name").asText() : null);
+                product.setDescription(node.hasNonNull("description") ? node.get("description").asText() : null);
+                JsonNode price = number(node, "price", "price", errors);
+                product.setPrice(price != null ? price.decimalValue() : null);
+                JsonNode stock = number(node, "stockQuantity", "stock_quantity", errors);
+                if (stock != null) {
+                    product.setStockQuantity(stock.isIntegralNumber() && stock.canConvertToInt() ? stock.intValue() : null);
+                    if (product.getStockQuantity() == null) {
+                        errors.add("Invalid stock_quantity: " + stock);
+                    }
+                }
+            } catch (JsonProcessingException e) {
+                errors.add("Malformed JSON: " + e.getOriginalMessage());
+            }
+            accept(row, product, errors, progress, sink);
+        }
+    }
+
+    private void accept(long row, Product product, List<String> errors, Progress progress, RowSink sink) {
+        if (errors.isEmpty()) {
+            validate(product, errors);
+        }
+        if (product.getId() != null && product.getStockQuantity() != null && allotments.isEnabled()) {
+            errors.add("Stock of existing products can't be imported while stock allotments are enabled");
+        }
+        if (!errors.isEmpty()) {
+            progress.rejected++;
+            if (progress.errors.size() < maxErrors) {
+                progress.errors.add(new ProductImportResult.RowError(row, errors));
+            }
+            return;
+        }
+        sink.add(row, product);
+    }
+
+    // The entity constraints, plus what the products table would otherwise reject for the whole chunk
+    private void validate(Product product, List<String> errors) {
+        for (ConstraintViolation<Product> violation : validator.validate(product)) {
+            errors.add(violation.getMessage());
+        }
+        if (product.getName() != null && product.getName().length() > 100) {
+            errors.add("Product name cannot be longer than 100 characters");
+        }
+        if (product.getPrice() == null) {
+            errors.add("Price is required");
+        } else if (product.getPrice().precision() - product.getPrice().scale() > 8) {
+            errors.add("Price must be less than 100000000");
+        }
+    }
+
+    private interface RowSink {
+
+        void add(long row, Product product);
+
+        void finish();
+    }
+
+    // COPY of every chunk into a staging table living for the chunk's transaction
+    private final class CopySink implements RowSink {
+
+        private final Progress progress;
+        private final ByteArrayOutputStream chunk = new ByteArrayOutputStream(64 * 1024);
+        private final StringBuilder line = new StringBuilder(256);
+        private int pending;
+        private boolean explicitIds;
+
+        private CopySink(Progress progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void add(long row, Product product) {
+            explicitIds |= product.getId() != null;
+            line.setLength(0);
+            line.append(row).append(',');
+            if (product.getId() != null) {
+                line.append(product.getId());
+            }
+            line.append(',');
+            appendQuoted(product.getName());
+            line.append(',');
+            appendQuoted(product.getDescription());
+            line.append(',').append(product.getPrice().toPlainString()).append(',');
+            if (product.getStockQuantity() != null) {
+                line.append(product.getStockQuantity());
+            }
+            line.append('\n');
+            chunk.writeBytes(line.toString().getBytes(StandardCharsets.UTF_8));
+            if (++pending == chunkSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void finish() {
+            flush();
+        }
+
+        private void flush() {
+            if (pending == 0) {
+                return;
+            }
+            boolean syncSequence = explicitIds;
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                jdbcTemplate.execute(CREATE_STAGING_SQL);
+                try {
+                    connection.unwrap(PGConnection.class).getCopyAPI()
+                            .copyIn(COPY_SQL, new ByteArrayInputStream(chunk.toByteArray()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                jdbcTemplate.update(UPDATE_FROM_STAGING_SQL);
+                jdbcTemplate.update(INSERT_WITH_ID_FROM_STAGING_SQL);
+                jdbcTemplate.update(INSERT_NEW_SQL);
+                if (syncSequence) {
+                    jdbcTemplate.execute(SYNC_SEQUENCE_SQL);
+                }
+                return null;
+            }));
+            progress.imported += pending;
+            chunk.reset();
+            pending = 0;
+            explicitIds = false;
+        }
+
+        // Quoted in CSV, so an empty string stays empty and only a missing value is NULL
+        private void appendQuoted(String value) {
+            if (value != null) {
+                line.append('"').append(value.replace("\"", "\"\"")).append('"');
+            }
+        }
+    }
+
+    // JDBC batches per chunk, for databases without COPY
+    private final class BatchSink implements RowSink {
+
+        private final Progress progress;
+        private final Map<Long, Product> withId = new LinkedHashMap<>();
+        private final List<Product> withoutId = new ArrayList<>();
+        private int pending;
+
+        private BatchSink(Progress progress) {
+            this.progress = progress;
+        }
+
+        @Override
+        public void add(long row, Product product) {
+            if (product.getId() != null) {
+                withId.put(product.getId(), product);
+            } else {
+                withoutId.add(product);
+            }
+            if (++pending == chunkSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void finish() {
+            flush();
+        }
+
+        private void flush() {
+            if (pending == 0) {
+                return;
+            }
+            transactionTemplate.executeWithoutResult(status -> write());
+            progress.imported += pending;
+            withId.clear();
+            withoutId.clear();
+            pending = 0;
+        }
+
+        private void write() {
+            List<Product> updates = new ArrayList<>(withId.values());
+            int[][] updated = jdbcTemplate.batchUpdate(UPDATE_SQL, updates, updates.size(), (ps, product) -> {
+                ps.setString(1, product.getName());
+                ps.setString(2, product.getDescription());
+                ps.setBigDecimal(3, product.getPrice());
+                ps.setObject(4, product.getStockQuantity(), Types.INTEGER);
+                ps.setLong(5, product.getId());
+            });
+            List<Product> missing = new ArrayList<>();
+            for (int i = 0; i < updates.size(); i++) {
+                if (updated[0][i] == 0) {
+                    missing.add(updates.get(i));
+                }
+            }
+            jdbcTemplate.batchUpdate(INSERT_WITH_ID_SQL, missing, missing.size(), (ps, product) -> {
+                ps.setLong(1, product.getId());
+                ps.setString(2, product.getName());
+                ps.setString(3, product.getDescription());
+                ps.setBigDecimal(4, product.getPrice());
+                ps.setInt(5, stockOrZero(product));
+            });
+            jdbcTemplate.batchUpdate(INSERT_SQL, withoutId, withoutId.size(), (ps, product) -> {
+                ps.setString(1, product.getName());
+                ps.setString(2, product.getDescription());
+                ps.setBigDecimal(3, product.getPrice());
+                ps.setInt(4, stockOrZero(product));
+            });
+        }
+    }
+
+    /**
+     * Read one CSV record (RFC 4180: quoted fields may contain separators, quotes and line
+     * breaks), {@code null} at the end of the input.
+     */
+    static List<String> readCsvRecord(BufferedReader reader) throws IOException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (c != -1) {
+            if (quoted) {
+                if (c == '"') {
+                    reader.mark(1);
+                    if (reader.read() == '"') {
+                        field.append('"');
+                    } else {
+                        reader.reset();
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String column(List<String> record, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        if (index == null || index >= record.size() || record.get(index).isEmpty()) {
+            return null;
+        }
+        return record.get(index);
+    }
+
+    private static <T> T parse(String value, Function<String, T> parser, String column,
+            List<String> errors) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return parser.apply(value.trim());
+        } catch (NumberFormatException e) {
+            errors.add("Invalid " + column + ": " + value);
+            return null;
+        }
+    }
+
+    // Numbers only: asLong() and asInt() would read anything else as 0
+    private static JsonNode number(JsonNode node, String field, String column, List<String> errors) {
+        JsonNode value = node.get(field);
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        if (!value.isNumber()) {
+            errors.add("Invalid " + column + ": " + value);
+            return null;
+        }
+        return value;
+    }
+
+    private static int stockOrZero(Product product) {
+        return product.getStockQuantity() != null ? product.getStockQuantity() : 0;
+    }
+
+    private static Counter importCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("inventory.import.rows")
+                .description("Rows of bulk product imports")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static final class Progress {
+
+        private long rows;
+        private long imported;
+        private long rejected;
+        private final List<ProductImportResult.RowError> errors = new ArrayList<>();
+    }
+}
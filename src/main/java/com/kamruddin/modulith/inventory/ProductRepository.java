@@ -1,7 +1,37 @@
 package com.kamruddin.modulith.inventory;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+public interface ProductRepository extends CrudRepository<Product, Long>, ProductRepositoryCustom {
+
+    /**
+     * Decrement stock in a single conditional statement. The row lock taken by the
+     * UPDATE serializes concurrent writers on the same product, and the guard in the
+     * WHERE clause makes an oversell impossible.
+     *
+     * @return the number of rows updated, 0 if the product is missing or has too little stock
+     */
+    @Modifying
+    @Query("UPDATE products SET stock_quantity = stock_quantity - :quantity, version = version + 1, "
+            + "updated_at = CURRENT_TIMESTAMP WHERE id = :id AND stock_quantity >= :quantity")
+    int decrementStock(@Param("id") Long id, @Param("quantity") int quantity);
 
-public interface ProductRepository extends CrudRepository<Product, Long> {
+    /**
+     * Overwrite a product whatever version it is at, for updates that don't carry one.
+     *
+     * @return the number of rows updated, 0 if the product does not exist
+     */
+    @Modifying
+    @Query("UPDATE products SET name = :name, description = :description, price = :price, "
+            + "stock_quantity = :stockQuantity, version = version + 1, updated_at = :updatedAt WHERE id = :id")
+    int overwrite(@Param("id") Long id, @Param("name") String name, @Param("description") String description,
+            @Param("price") BigDecimal price, @Param("stockQuantity") Integer stockQuantity,
+            @Param("updatedAt") LocalDateTime updatedAt);
 
-}
\ No newline at end of file
+}
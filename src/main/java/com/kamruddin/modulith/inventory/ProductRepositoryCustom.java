@@ -0,0 +1,20 @@
+package com.kamruddin.modulith.inventory;
+
+import java.util.function.Consumer;
+
+/**
+ * Product queries that avoid loading the whole table: a cursor-backed stream. The page size
+ * limits apply to the keyset pages served from the catalog snapshot.
+ */
+public interface ProductRepositoryCustom {
+
+    int DEFAULT_LIMIT = 100;
+    int MAX_LIMIT = 1000;
+
+    /**
+     * Hand every product to the consumer while reading it from a JDBC cursor.
+     * Must be called inside a transaction for PostgreSQL to honour the fetch size.
+     */
+    void streamAll(Consumer<Product> consumer);
+
+}
@@ -0,0 +1,45 @@
+package com.kamruddin.modulith.inventory;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+class ProductRepositoryCustomImpl implements ProductRepositoryCustom {
+
+    private static final String SELECT_PRODUCTS =
+            "SELECT id, name, description, price, stock_quantity, created_at, version, updated_at FROM products";
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private final JdbcTemplate streamingJdbcTemplate;
+
+    ProductRepositoryCustomImpl(DataSource dataSource) {
+        this.streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        this.streamingJdbcTemplate.setFetchSize(STREAM_FETCH_SIZE);
+    }
+
+    @Override
+    public void streamAll(Consumer<Product> consumer) {
+        RowCallbackHandler handler = rs -> consumer.accept(mapProduct(rs, 0));
+        streamingJdbcTemplate.query(SELECT_PRODUCTS + " ORDER BY id", handler);
+    }
+
+    private static Product mapProduct(ResultSet rs, int rowNum) throws SQLException {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        return new Product(
+                rs.getLong("id"),
+                rs.getString("name"),
+                rs.getString("description"),
+                rs.getBigDecimal("price"),
+                rs.getInt("stock_quantity"),
+                createdAt != null ? createdAt.toLocalDateTime() : null,
+                rs.getLong("version"),
+                updatedAt != null ? updatedAt.toLocalDateTime() : null);
+    }
+}
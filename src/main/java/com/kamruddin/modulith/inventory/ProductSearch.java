@@ -0,0 +1,154 @@
+package com.kamruddin.modulith.inventory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.kamruddin.modulith.config.SchemaGate;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the {@link ProductSearchIndex} behind GET /api/products/search in step with the
+ * products table. The index is built from a cursor over all products once the application is
+ * ready and the schema is in place, changed products are re-read on the next query
+ * ({@link ProductViewRefresher}), and a full rebuild every reload-interval catches changes
+ * whose broadcast was lost. Full rebuilds, including those after an import, run on a
+ * background thread into a new index that replaces the old one once complete; queries only
+ * ever wait for the very first build.
+ */
+@Component
+@Slf4j
+class ProductSearch implements ProductChangeListener, ProductViewRefresher.View {
+
+    private final ProductRepository productRepository;
+    private final SchemaGate schemaGate;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Timer queries;
+    private final int maxTermsPerProduct;
+    private final int maxTermLength;
+    private final int maxExpansions;
+
+    private final ProductViewRefresher refresher;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private volatile ProductSearchIndex index;
+
+    ProductSearch(ProductRepository productRepository, SchemaGate schemaGate,
+            PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+            @Value("${inventory.search.max-terms-per-product:32}") int maxTermsPerProduct,
+            @Value("${inventory.search.max-term-length:24}") int maxTermLength,
+            @Value("${inventory.search.max-expansions:50}") int maxExpansions) {
+        this.productRepository = productRepository;
+        this.schemaGate = schemaGate;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.maxTermsPerProduct = maxTermsPerProduct;
+        this.maxTermLength = maxTermLength;
+        this.maxExpansions = maxExpansions;
+        this.refresher = new ProductViewRefresher(productRepository, this);
+        this.queries = Timer.builder("inventory.search")
+                .description("Product search queries against the in-memory index")
+                .register(meterRegistry);
+        Gauge.builder("inventory.search.index.products", this, s -> s.index != null ? s.index.size() : 0)
+                .description("Products in the search index")
+                .register(meterRegistry);
+        Gauge.builder("inventory.search.index.postings", this, s -> s.index != null ? s.index.postings() : 0)
+                .description("Postings held by the search index, tombstones included")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void onProductChanged(Long productId, boolean stockOnly) {
+        if (stockOnly) {
+            return;
+        }
+        refresher.markDirty(productId);
+        if (productId == null) {
+            rebuildInBackground();
+        }
+    }
+
+    // Off the startup path; queries arriving earlier wait for the first build
+    @EventListener(ApplicationReadyEvent.class)
+    void build() {
+        schemaGate.whenOpen(this::rebuildInBackground);
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.search.reload-interval:600000}",
+            initialDelayString = "${inventory.search.reload-interval:600000}")
+    void scheduleReload() {
+        refresher.markAllDirty();
+        rebuildInBackground();
+    }
+
+    /**
+     * @return ids and scores of the best matches of the query, best first
+     */
+    List<ProductSearchIndex.Hit> search(String query, int limit) {
+        if (index == null) {
+            refresher.refresh(true);
+        } else {
+            // Changed products only, and not while a rebuild holds the refresh lock
+            refresher.refresh(false, false);
+            if (refresher.isReloadPending()) {
+                // An earlier rebuild failed
+                rebuildInBackground();
+            }
+        }
+        return queries.record(() -> index.search(query, limit));
+    }
+
+    // One rebuild at a time; a reload requested while it runs is picked up right after
+    private void rebuildInBackground() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        Thread.ofVirtual().name("product-search-build").start(() -> {
+            try {
+                refresher.refresh(true);
+            } catch (Exception e) {
+                log.warn("Could not build the product search index, retrying with the next query: {}", e.getMessage());
+                return;
+            } finally {
+                rebuilding.set(false);
+            }
+            if (refresher.isReloadPending()) {
+                rebuildInBackground();
+            }
+        });
+    }
+
+    @Override
+    public void reload() {
+        index = rebuild();
+    }
+
+    @Override
+    public void put(Product product) {
+        index.put(product);
+    }
+
+    @Override
+    public void remove(Long productId) {
+        index.remove(productId);
+    }
+
+    private ProductSearchIndex rebuild() {
+        long started = System.nanoTime();
+        ProductSearchIndex rebuilt = new ProductSearchIndex(maxTermsPerProduct, maxTermLength, maxExpansions);
+        readOnlyTransaction.executeWithoutResult(status -> productRepository.streamAll(rebuilt::put));
+        log.info("Built product search index: {} products, {} terms, {} postings in {} ms", rebuilt.size(),
+                rebuilt.terms(), rebuilt.postings(), (System.nanoTime() - started) / 1_000_000);
+        return rebuilt;
+    }
+}
@@ -0,0 +1,501 @@
+package com.kamruddin.modulith.inventory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * In-memory inverted index over product names and descriptions. Text is split into lower-case
+ * letter/digit terms; every term maps to an append-only, sorted posting list of document
+ * ordinals with the field in the lowest bit. A changed product gets a new ordinal and its old
+ * one becomes a tombstone, so writes only ever append. Once tombstones make up a quarter of
+ * the index the postings are compacted in place.
+ * <p>
+ * A query matches products containing every query term, each as a whole term or as the prefix
+ * of up to max-expansions terms. Products are ranked by the sum over query terms of the term's
+ * idf, weighted by the field it was found in (name over description) and lower for prefix
+ * matches. Memory is bounded by the terms indexed per product and the term length.
+ */
+class ProductSearchIndex {
+
+    static final int MIN_TERM_LENGTH = 2;
+
+    private static final float NAME_WEIGHT = 3f;
+    private static final float DESCRIPTION_WEIGHT = 1f;
+    private static final float PREFIX_WEIGHT = 0.5f;
+    private static final int NAME = 1;
+    private static final int DESCRIPTION = 2;
+
+    private final int maxTermsPerProduct;
+    private final int maxTermLength;
+    private final int maxExpansions;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final LongIntMap ordinals = new LongIntMap();
+    private final BitSet dead = new BitSet();
+    private long[] ids = new long[1024];
+    private long[] fingerprints = new long[1024];
+    private int size;
+    private int live;
+    private long postings;
+
+    ProductSearchIndex(int maxTermsPerProduct, int maxTermLength, int maxExpansions) {
+        this.maxTermsPerProduct = maxTermsPerProduct;
+        this.maxTermLength = maxTermLength;
+        this.maxExpansions = maxExpansions;
+    }
+
+    /**
+     * Index a new or changed product; a product whose name and description didn't change is
+     * left alone, so stock updates cost a lookup.
+     */
+    void put(Product product) {
+        long fingerprint = fingerprint(product);
+        lock.writeLock().lock();
+        try {
+            int existing = ordinals.get(product.getId());
+            if (existing >= 0) {
+                if (fingerprints[existing] == fingerprint) {
+                    return;
+                }
+                kill(existing);
+            }
+            int ordinal = size++;
+            if (ordinal == ids.length) {
+                ids = Arrays.copyOf(ids, ordinal * 2);
+                fingerprints = Arrays.copyOf(fingerprints, ordinal * 2);
+            }
+            ids[ordinal] = product.getId();
+            fingerprints[ordinal] = fingerprint;
+            ordinals.put(product.getId(), ordinal);
+            live++;
+
+            // Name terms first, they win the budget of terms per product
+            Map<String, Integer> fields = new LinkedHashMap<>();
+            collect(product.getName(), NAME, fields);
+            collect(product.getDescription(), DESCRIPTION, fields);
+            for (Map.Entry<String, Integer> term : fields.entrySet()) {
+                Postings list = terms.computeIfAbsent(term.getKey(), t -> new Postings());
+                if ((term.getValue() & NAME) != 0) {
+                    list.add(ordinal << 1);
+                }
+                if ((term.getValue() & DESCRIPTION) != 0) {
+                    list.add(ordinal << 1 | 1);
+                }
+                postings += Integer.bitCount(term.getValue());
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(Long productId) {
+        lock.writeLock().lock();
+        try {
+            int ordinal = ordinals.remove(productId);
+            if (ordinal >= 0) {
+                kill(ordinal);
+                compactIfNeeded();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the best {@code limit} products matching every term of the query, best first
+     */
+    List<Hit> search(String query, int limit) {
+        List<String> tokens = new ArrayList<>();
+        tokenize(query, tokens::add);
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            // Most selective term first, the others only score its candidates
+            List<List<Expansion>> expanded = new ArrayList<>();
+            for (String token : tokens.stream().distinct().toList()) {
+                List<Expansion> expansions = expand(token);
+                if (expansions.isEmpty()) {
+                    return List.of();
+                }
+                expanded.add(expansions);
+            }
+            expanded.sort(Comparator.comparingLong(ProductSearchIndex::cost));
+
+            IntFloatMap candidates = null;
+            for (List<Expansion> expansions : expanded) {
+                int expected = candidates != null ? candidates.size() : (int) Math.min(cost(expansions), 1 << 20);
+                IntFloatMap scores = new IntFloatMap(expected);
+                for (Expansion expansion : expansions) {
+                    score(expansion, candidates, scores);
+                }
+                if (candidates != null) {
+                    scores.addAll(candidates);
+                }
+                candidates = scores;
+                if (candidates.size() == 0) {
+                    return List.of();
+                }
+            }
+            return top(candidates, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        return live;
+    }
+
+    int terms() {
+        return terms.size();
+    }
+
+    long postings() {
+        return postings;
+    }
+
+    private void score(Expansion expansion, IntFloatMap candidates, IntFloatMap scores) {
+        Postings list = expansion.postings();
+        float idf = (float) Math.log(1 + (double) live / list.size);
+        float weight = expansion.exact() ? idf : idf * PREFIX_WEIGHT;
+        for (int i = 0; i < list.size; i++) {
+            int value = list.values[i];
+            int ordinal = value >>> 1;
+            if (dead.get(ordinal) || (candidates != null && !candidates.contains(ordinal))) {
+                continue;
+            }
+            // A term found in several fields or terms sharing a prefix count once, at their best
+            scores.max(ordinal, weight * ((value & 1) == 0 ? NAME_WEIGHT : DESCRIPTION_WEIGHT));
+        }
+    }
+
+    private List<Hit> top(IntFloatMap scores, int limit) {
+        // Ties go to the lower product id
+        Comparator<Hit> rank = Comparator.comparingDouble(Hit::score)
+                .thenComparing(Hit::productId, Comparator.reverseOrder());
+        PriorityQueue<Hit> best = new PriorityQueue<>(limit + 1, rank);
+        scores.forEach((ordinal, score) -> {
+            if (best.size() < limit || score >= best.peek().score()) {
+                best.add(new Hit(ids[ordinal], score));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        });
+        List<Hit> hits = new ArrayList<>(best);
+        hits.sort(rank.reversed());
+        return hits;
+    }
+
+    private List<Expansion> expand(String token) {
+        List<Expansion> expansions = new ArrayList<>();
+        Postings exact = terms.get(token);
+        if (exact != null) {
+            expansions.add(new Expansion(exact, true));
+        }
+        NavigableMap<String, Postings> prefixed = terms.subMap(token, false, token + Character.MAX_VALUE, false);
+        for (Postings list : prefixed.values()) {
+            if (expansions.size() >= maxExpansions) {
+                break;
+            }
+            expansions.add(new Expansion(list, false));
+        }
+        return expansions;
+    }
+
+    private static long cost(List<Expansion> expansions) {
+        long cost = 0;
+        for (Expansion expansion : expansions) {
+            cost += expansion.postings().size;
+        }
+        return cost;
+    }
+
+    // 64-bit FNV-1a over both fields: a collision would keep a renamed product under its old
+    // terms, at 32 bits that becomes likely across a large catalog's updates
+    private static long fingerprint(Product product) {
+        long hash = 0xCBF29CE484222325L;
+        for (String text : new String[] {product.getName(), product.getDescription()}) {
+            if (text != null) {
+                for (int i = 0; i < text.length(); i++) {
+                    hash = (hash ^ text.charAt(i)) * 0x100000001B3L;
+                }
+            }
+            // Beyond any char, so "ab" + "c" differs from "a" + "bc" and null from ""
+            hash = (hash ^ (text != null ? 0x10000 : 0x10001)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private void collect(String text, int field, Map<String, Integer> fields) {
+        tokenize(text, term -> {
+            if (fields.size() < maxTermsPerProduct || fields.containsKey(term)) {
+                fields.merge(term, field, (a, b) -> a | b);
+            }
+        });
+    }
+
+    private void tokenize(String text, Consumer<String> sink) {
+        if (text == null) {
+            return;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean termChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH) {
+                    sink.accept(text.substring(start, Math.min(i, start + maxTermLength)).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    private void kill(int ordinal) {
+        dead.set(ordinal);
+        live--;
+    }
+
+    // Drop the postings of tombstones and renumber the remaining products, keeping their order
+    private void compactIfNeeded() {
+        int tombstones = size - live;
+        if (tombstones < 1024 || tombstones < live / 4) {
+            return;
+        }
+        int[] renumbered = new int[size];
+        int next = 0;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            if (dead.get(ordinal)) {
+                renumbered[ordinal] = -1;
+            } else {
+                renumbered[ordinal] = next;
+                ids[next] = ids[ordinal];
+                fingerprints[next] = fingerprints[ordinal];
+                ordinals.put(ids[next], next);
+                next++;
+            }
+        }
+        postings = 0;
+        terms.values().removeIf(list -> {
+            list.retain(renumbered);
+            postings += list.size;
+            return list.size == 0;
+        });
+        dead.clear();
+        size = next;
+    }
+
+    record Hit(long productId, float score) {
+    }
+
+    private record Expansion(Postings postings, boolean exact) {
+    }
+
+    // Sorted ordinal << 1 | field values, grown by appending
+    private static final class Postings {
+
+        private int[] values = new int[2];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size + (size >> 1) + 1);
+            }
+            values[size++] = value;
+        }
+
+        private void retain(int[] renumbered) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int ordinal = renumbered[values[i] >>> 1];
+                if (ordinal >= 0) {
+                    values[kept++] = ordinal << 1 | (values[i] & 1);
+                }
+            }
+            size = kept;
+            if (values.length > 2 * kept + 2) {
+                values = Arrays.copyOf(values, kept + 1);
+            }
+        }
+    }
+
+    // Product id to ordinal without boxing, open addressing with linear probing; -1 if absent
+    private static final class LongIntMap {
+
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024];
+        private boolean[] used = new boolean[1024];
+        private int size;
+
+        private int get(long key) {
+            for (int slot = slot(key, keys.length); used[slot]; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        private void put(long key, int value) {
+            if (size * 2 >= keys.length) {
+                resize();
+            }
+            int slot = slot(key, keys.length);
+            for (; used[slot]; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+
+        private int remove(long key) {
+            int mask = keys.length - 1;
+            int slot = slot(key, keys.length);
+            for (; used[slot]; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    int value = values[slot];
+                    // Shift later entries of the probe sequence back into the gap
+                    int gap = slot;
+                    for (int next = (gap + 1) & mask; used[next]; next = (next + 1) & mask) {
+                        int home = slot(keys[next], keys.length);
+                        if (((next - home) & mask) >= ((next - gap) & mask)) {
+                            keys[gap] = keys[next];
+                            values[gap] = values[next];
+                            gap = next;
+                        }
+                    }
+                    used[gap] = false;
+                    size--;
+                    return value;
+                }
+            }
+            return -1;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int length) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (length - 1);
+        }
+    }
+
+    // Per-query scores by ordinal, open addressing without boxing
+    private static final class IntFloatMap {
+
+        private int[] keys;
+        private float[] values;
+        private int size;
+
+        private IntFloatMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            keys = new int[capacity];
+            values = new float[capacity];
+            Arrays.fill(keys, -1);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private boolean contains(int key) {
+            return keys[find(key)] == key;
+        }
+
+        private void max(int key, float value) {
+            int slot = find(key);
+            if (keys[slot] == key) {
+                values[slot] = Math.max(values[slot], value);
+                return;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+        }
+
+        // Add the other map's score to every key of this one
+        private void addAll(IntFloatMap other) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] >= 0) {
+                    values[i] += other.values[other.find(keys[i])];
+                }
+            }
+        }
+
+        private void forEach(Scorer scorer) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] >= 0) {
+                    scorer.accept(keys[i], values[i]);
+                }
+            }
+        }
+
+        private int find(int key) {
+            int mask = keys.length - 1;
+            int h = key * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (keys[slot] >= 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize() {
+            int[] oldKeys = keys;
+            float[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new float[oldKeys.length * 2];
+            Arrays.fill(keys, -1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] >= 0) {
+                    int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Scorer {
+
+        void accept(int ordinal, float score);
+    }
+}
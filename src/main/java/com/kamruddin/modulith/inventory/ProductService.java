@@ -1,11 +1,29 @@
 package com.kamruddin.modulith.inventory;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
+import jakarta.annotation.PostConstruct;
+
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 
 @Service
@@ -13,38 +31,243 @@ import lombok.RequiredArgsConstructor;
 public class ProductService {
 
     private final ProductRepository productRepository;
+    private final ProductChangeNotifier changeNotifier;
+    private final ProcessedOrderLedger ledger;
+    private final MeterRegistry meterRegistry;
+    private final StockAllotments allotments;
+    private final PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
 
+    @Cacheable(cacheNames = ProductCacheEvictor.PRODUCT_LIST_CACHE, key = "'all'")
     public List<Product> findAll() {
         return (List<Product>) productRepository.findAll();
     }
 
+    // Read-only transaction keeps the JDBC cursor open while rows are handed to the consumer
+    @Transactional(readOnly = true)
+    public void streamProducts(Consumer<Product> consumer) {
+        productRepository.streamAll(consumer);
+    }
+
+    @Cacheable(cacheNames = ProductCacheEvictor.PRODUCTS_CACHE, key = "#id")
     public Optional<Product> findById(Long id) {
         return productRepository.findById(id);
     }
 
+    /**
+     * Insert a product, or update the one with its id. An update carrying the version it was
+     * read at fails with an OptimisticLockingFailureException if the product changed since;
+     * one without a version overwrites whatever is stored, the last writer wins.
+     */
     @Transactional
     public Product save(Product product) {
-        return productRepository.save(product);
+        product.setUpdatedAt(LocalDateTime.now());
+        Product saved;
+        if (product.getId() != null && product.getVersion() == null
+                && productRepository.overwrite(product.getId(), product.getName(), product.getDescription(),
+                        product.getPrice(), product.getStockQuantity(), product.getUpdatedAt()) > 0) {
+            saved = productRepository.findById(product.getId()).orElseThrow();
+        } else {
+            saved = productRepository.save(product);
+        }
+        changeNotifier.productChanged(saved.getId());
+        return saved;
     }
 
     @Transactional
     public void deleteById(Long id) {
         productRepository.deleteById(id);
+        changeNotifier.productChanged(id);
     }
 
     @Transactional
     public boolean updateStock(Long productId, int quantity) {
-        Optional<Product> productOpt = productRepository.findById(productId);
-        if (productOpt.isPresent()) {
-            Product product = productOpt.get();
-            int newStock = product.getStockQuantity() - quantity;
-            if (newStock >= 0) {
-                product.setStockQuantity(newStock);
-                productRepository.save(product);
-                return true;
+        // Single atomic UPDATE instead of read-modify-write, so concurrent updates to
+        // the same product can neither be lost nor drive the stock below zero
+        long started = System.nanoTime();
+        boolean updated = productRepository.decrementStock(productId, quantity) > 0;
+        recordStockUpdate(started, updated ? "applied" : "insufficient_stock");
+        if (updated) {
+            changeNotifier.stockChanged(productId);
+        }
+        return updated;
+    }
+
+    /**
+     * Apply the stock decrement of one order exactly once. The order is recorded in the
+     * processed-order ledger in the same transaction as the stock update, so a redelivered
+     * event is reported as a duplicate instead of decrementing the stock again. With stock
+     * allotments enabled, the stock is taken from this node's lease of the product instead
+     * and only the ledger row is written.
+     */
+    public StockUpdateResult applyOrder(StockDemand demand) {
+        if (allotments.isEnabled() && demand.orderId() != null) {
+            return applyFromAllotment(demand);
+        }
+        return transactionTemplate.execute(status -> applyToStock(demand, status));
+    }
+
+    private StockUpdateResult applyToStock(StockDemand demand, TransactionStatus status) {
+        if (demand.orderId() != null) {
+            if (ledger.isKnownDuplicate(demand.orderId())
+                    || !ledger.record(demand.orderId(), demand.productId(), demand.quantity())) {
+                return StockUpdateResult.DUPLICATE;
+            }
+        }
+        if (!updateStock(demand.productId(), demand.quantity())) {
+            // Undo the ledger entry so a later retry of this order is not taken for a duplicate
+            status.setRollbackOnly();
+            return StockUpdateResult.INSUFFICIENT_STOCK;
+        }
+        return StockUpdateResult.APPLIED;
+    }
+
+    // Reserve outside of the order transaction, leasing a new slice commits on its own
+    private StockUpdateResult applyFromAllotment(StockDemand demand) {
+        if (ledger.isKnownDuplicate(demand.orderId())) {
+            return StockUpdateResult.DUPLICATE;
+        }
+        long started = System.nanoTime();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            StockAllotments.Reservation reservation = allotments.reserve(demand.productId(), demand.quantity());
+            if (reservation == null) {
+                if (allotments.isHeldByLeases(demand.productId(), demand.quantity())) {
+                    recordStockUpdate(started, "stock_leased");
+                    return StockUpdateResult.STOCK_LEASED;
+                }
+                recordStockUpdate(started, "insufficient_stock");
+                return StockUpdateResult.INSUFFICIENT_STOCK;
+            }
+            StockUpdateResult result = recordAgainst(reservation, demand);
+            if (result != null) {
+                recordStockUpdate(started, result == StockUpdateResult.APPLIED ? "applied" : "duplicate");
+                return result;
+            }
+        }
+        throw new IllegalStateException("Stock leases of product " + demand.productId() + " keep being revoked");
+    }
+
+    /**
+     * Write the ledger row of a reserved order, tagged with its lease. The reservation is
+     * settled once the (possibly enclosing) transaction completed: kept on commit, handed
+     * back to the lease otherwise.
+     *
+     * @return {@code null} if the lease was revoked and nothing was written
+     */
+    private StockUpdateResult recordAgainst(StockAllotments.Reservation reservation, StockDemand demand) {
+        AtomicBoolean settled = new AtomicBoolean();
+        AtomicBoolean recorded = new AtomicBoolean();
+        try {
+            return transactionTemplate.execute(status -> {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCompletion(int completion) {
+                        if (settled.compareAndSet(false, true)) {
+                            allotments.complete(reservation, completion == STATUS_COMMITTED && recorded.get());
+                        }
+                    }
+                });
+                if (!allotments.isActive(reservation.leaseId())) {
+                    allotments.revoke(reservation.leaseId());
+                    return null;
+                }
+                recorded.set(ledger.record(demand.orderId(), demand.productId(), demand.quantity(),
+                        reservation.leaseId()));
+                return recorded.get() ? StockUpdateResult.APPLIED : StockUpdateResult.DUPLICATE;
+            });
+        } catch (RuntimeException e) {
+            // The transaction could not even begin, so the synchronization never ran
+            if (settled.compareAndSet(false, true)) {
+                allotments.complete(reservation, false);
+            }
+            throw e;
+        }
+    }
+
+    private void recordStockUpdate(long started, String outcome) {
+        Timer.builder("inventory.stock.update")
+                .description("Time of the conditional stock decrement")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Whether the order is known to be applied already, answered from memory only.
+     */
+    public boolean isKnownDuplicate(Long orderId) {
+        return ledger.isKnownDuplicate(orderId);
+    }
+
+    /**
+     * Apply a batch of stock decrements in one transaction. Duplicates of already applied
+     * orders are skipped, demands for the same product are combined into a single UPDATE;
+     * if the combined quantity would oversell, that product's demands are applied one by
+     * one so only the ones that don't fit are rejected. With stock allotments enabled the
+     * product rows are left alone: every demand is reserved from this node's leases and
+     * recorded like a single order, in a transaction of its own.
+     *
+     * @return the demands that could not be applied, with the reason
+     */
+    public Map<StockDemand, StockUpdateResult> updateStockBatch(List<StockDemand> demands) {
+        Map<StockDemand, StockUpdateResult> failed = new IdentityHashMap<>();
+        if (allotments.isEnabled()) {
+            // A redelivered batch finds what was already applied in the ledger
+            for (StockDemand demand : demands) {
+                StockUpdateResult result = applyOrder(demand);
+                if (result == StockUpdateResult.INSUFFICIENT_STOCK || result == StockUpdateResult.STOCK_LEASED) {
+                    failed.put(demand, result);
+                }
+            }
+            return failed;
+        }
+        transactionTemplate.executeWithoutResult(status -> applyBatchToStock(demands)
+                .forEach(demand -> failed.put(demand, StockUpdateResult.INSUFFICIENT_STOCK)));
+        return failed;
+    }
+
+    // Must run inside a transaction
+    private List<StockDemand> applyBatchToStock(List<StockDemand> demands) {
+        Map<Long, List<StockDemand>> demandsByProduct = new LinkedHashMap<>();
+        for (StockDemand demand : demands) {
+            if (demand.orderId() != null && (ledger.isKnownDuplicate(demand.orderId())
+                    || !ledger.record(demand.orderId(), demand.productId(), demand.quantity()))) {
+                continue;
+            }
+            demandsByProduct.computeIfAbsent(demand.productId(), id -> new ArrayList<>()).add(demand);
+        }
+
+        List<StockDemand> rejected = new ArrayList<>();
+        for (Map.Entry<Long, List<StockDemand>> entry : demandsByProduct.entrySet()) {
+            Long productId = entry.getKey();
+            List<StockDemand> productDemands = entry.getValue();
+            int total = productDemands.stream().mapToInt(StockDemand::quantity).sum();
+            if (productRepository.decrementStock(productId, total) > 0) {
+                changeNotifier.stockChanged(productId);
+                continue;
+            }
+            int applied = 0;
+            for (StockDemand demand : productDemands) {
+                if (productRepository.decrementStock(productId, demand.quantity()) == 0) {
+                    rejected.add(demand);
+                    if (demand.orderId() != null) {
+                        ledger.forget(demand.orderId());
+                    }
+                } else {
+                    applied++;
+                }
+            }
+            if (applied > 0) {
+                changeNotifier.stockChanged(productId);
             }
         }
-        return false;
+        return rejected;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,144 @@
+package com.kamruddin.modulith.inventory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Change tracking of the in-memory product views ({@link CatalogSnapshot}, {@link ProductSearch}).
+ * A change notification only marks the product dirty; the next read re-reads just the dirty
+ * products, or all of them after a notification for any product or a periodic reload (unless
+ * the view leaves full reloads to a background thread). The
+ * view is only changed under the refresh lock, and a refresh that fails leaves its products
+ * marked for the next read.
+ */
+class ProductViewRefresher {
+
+    /**
+     * Applies what a refresh read to the view, called with the refresh lock held.
+     */
+    interface View {
+
+        /**
+         * Replace the whole view with the current products.
+         */
+        void reload();
+
+        void put(Product product);
+
+        void remove(Long productId);
+
+        /**
+         * Called after the view changed, still under the refresh lock.
+         */
+        default void refreshed() {
+        }
+    }
+
+    private final ProductRepository productRepository;
+    private final View view;
+
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile boolean reloadAll = true;
+
+    ProductViewRefresher(ProductRepository productRepository, View view) {
+        this.productRepository = productRepository;
+        this.view = view;
+    }
+
+    /**
+     * @param productId the changed product, or {@code null} to reload all of them
+     */
+    void markDirty(Long productId) {
+        if (productId != null) {
+            dirty.add(productId);
+        } else {
+            reloadAll = true;
+        }
+    }
+
+    void markAllDirty() {
+        reloadAll = true;
+    }
+
+    /**
+     * Whether the whole view is to be reloaded.
+     */
+    boolean isReloadPending() {
+        return reloadAll;
+    }
+
+    /**
+     * Bring the view up to date, every change after this point marks its product dirty again.
+     *
+     * @param wait whether to wait for a refresh running in another thread, rather than return
+     *        and leave the caller with the view as it is
+     * @return whether the view changed
+     */
+    boolean refresh(boolean wait) {
+        return refresh(wait, true);
+    }
+
+    /**
+     * @param reload whether to reload the whole view if that is pending; if not, only the
+     *        dirty products are re-read and the pending reload is left to another caller
+     */
+    boolean refresh(boolean wait, boolean reload) {
+        boolean reloading = reload && reloadAll;
+        if (!reloading && dirty.isEmpty()) {
+            return false;
+        }
+        if (wait) {
+            refreshLock.lock();
+        } else if (!refreshLock.tryLock()) {
+            return false;
+        }
+        try {
+            if (reload && reloadAll) {
+                reloadAll = false;
+                dirty.clear();
+                try {
+                    view.reload();
+                } catch (RuntimeException e) {
+                    reloadAll = true;
+                    throw e;
+                }
+            } else if (!dirty.isEmpty()) {
+                Set<Long> ids = new HashSet<>(dirty);
+                dirty.removeAll(ids);
+                try {
+                    Set<Long> missing = new HashSet<>(ids);
+                    for (Product product : productRepository.findAllById(ids)) {
+                        missing.remove(product.getId());
+                        view.put(product);
+                    }
+                    missing.forEach(view::remove);
+                } catch (RuntimeException e) {
+                    dirty.addAll(ids);
+                    throw e;
+                }
+            } else {
+                return false;
+            }
+            view.refreshed();
+            return true;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     * @return the result of the action, run while no refresh changes the view
+     */
+    <T> T locked(Supplier<T> action) {
+        refreshLock.lock();
+        try {
+            return action.get();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+}
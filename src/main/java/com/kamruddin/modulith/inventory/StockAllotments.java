@@ -0,0 +1,436 @@
+package com.kamruddin.modulith.inventory;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Per-node stock allotments (escrow), enabled with inventory.allotment.enabled. Instead of
+ * every order decrementing the product row, a node leases a slice of the stock (moved from
+ * products.stock_quantity into a stock_leases row) and serves orders from an in-memory
+ * counter. Orders still write their ledger row, tagged with the lease, so the ledger is the
+ * durable record of what a lease sold:
+ * <ul>
+ * <li>Consumed quantities are flushed to stock_leases in batches with the heartbeat that
+ * keeps the lease alive.</li>
+ * <li>Exhausted or idle leases are closed and {@code granted - sold} goes back to the
+ * product.</li>
+ * <li>Leases of a crashed node expire; after a grace period, another node returns
+ * {@code granted - sold}. Ledger rows can only be written while the lease is ACTIVE, and the
+ * order transaction keeps the lease row share-locked, so stock sold from a lease is never
+ * handed out twice.</li>
+ * </ul>
+ * Node clocks must agree within the grace period.
+ */
+@Component
+@Slf4j
+class StockAllotments {
+
+    static final String ACTIVE = "ACTIVE";
+    static final String EXPIRED = "EXPIRED";
+    static final String CLOSED = "CLOSED";
+
+    private static final String TAKE_STOCK_SQL =
+            "UPDATE products SET stock_quantity = stock_quantity - ?, version = version + 1, "
+            + "updated_at = CURRENT_TIMESTAMP WHERE id = ? AND stock_quantity >= ?";
+    private static final String AVAILABLE_SQL = "SELECT stock_quantity FROM products WHERE id = ?";
+    private static final String INSERT_LEASE_SQL =
+            "INSERT INTO stock_leases (id, product_id, node_id, granted, state, expires_at) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String HEARTBEAT_SQL =
+            "UPDATE stock_leases SET expires_at = ?, consumed = ? WHERE id = ? AND state = 'ACTIVE'";
+    private static final String CLOSE_SQL = "UPDATE stock_leases SET state = 'CLOSED' WHERE id = ? AND state = ?";
+    private static final String SOLD_SQL =
+            "SELECT COALESCE(SUM(quantity), 0) FROM processed_order_events WHERE lease_id = ?";
+    private static final String RETURN_STOCK_SQL =
+            "UPDATE products SET stock_quantity = stock_quantity + ?, version = version + 1, "
+            + "updated_at = CURRENT_TIMESTAMP WHERE id = ?";
+    private static final String EXPIRE_SQL =
+            "UPDATE stock_leases SET state = 'EXPIRED', expires_at = ? WHERE state = 'ACTIVE' AND expires_at < ?";
+    private static final String RECLAIMABLE_SQL =
+            "SELECT id, product_id, granted FROM stock_leases WHERE state = 'EXPIRED' AND expires_at < ?";
+    private static final String LEASE_STATE_SQL = "SELECT state FROM stock_leases WHERE id = ?";
+    private static final String HELD_SQL =
+            "SELECT COALESCE(SUM(granted - consumed), 0) FROM stock_leases "
+            + "WHERE product_id = ? AND state IN ('ACTIVE', 'EXPIRED')";
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final Map<Long, LocalLease> leases = new ConcurrentHashMap<>();
+    private final Map<Long, ReentrantLock> leaseLocks = new ConcurrentHashMap<>();
+    private final List<LocalLease> retired = new ArrayList<>();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ProductChangeNotifier changeNotifier;
+    private final boolean enabled;
+    private final int slice;
+    private final Duration leaseTtl;
+    private final Duration reclaimGrace;
+    private final Duration idleTimeout;
+    private final Counter acquired;
+    private final Counter released;
+    private final Counter reclaimed;
+    private volatile String shareLock;
+
+    StockAllotments(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+            ProductChangeNotifier changeNotifier, MeterRegistry meterRegistry,
+            @Value("${inventory.allotment.enabled:false}") boolean enabled,
+            @Value("${inventory.allotment.slice:100}") int slice,
+            @Value("${inventory.allotment.lease-ttl:30s}") Duration leaseTtl,
+            @Value("${inventory.allotment.reclaim-grace:30s}") Duration reclaimGrace,
+            @Value("${inventory.allotment.idle-timeout:60s}") Duration idleTimeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // Leases commit on their own, also when reserving from within a listener transaction
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.changeNotifier = changeNotifier;
+        this.enabled = enabled;
+        this.slice = slice;
+        this.leaseTtl = leaseTtl;
+        this.reclaimGrace = reclaimGrace;
+        this.idleTimeout = idleTimeout;
+        this.acquired = leaseCounter(meterRegistry, "acquired");
+        this.released = leaseCounter(meterRegistry, "released");
+        this.reclaimed = leaseCounter(meterRegistry, "reclaimed");
+        Gauge.builder("inventory.allotment.remaining", leases,
+                        it -> it.values().stream().mapToInt(lease -> lease.remaining.get()).sum())
+                .description("Stock held by this node's leases and not yet sold")
+                .register(meterRegistry);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Take the quantity from this node's lease of the product, leasing a new slice if needed.
+     * Leasing commits in a transaction of its own.
+     *
+     * @return the reservation, {@code null} if the product has not enough unleased stock left,
+     * see {@link #isHeldByLeases} for whether leases may still return some
+     */
+    Reservation reserve(Long productId, int quantity) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            LocalLease lease = leases.get(productId);
+            if (lease != null && lease.isUsable()) {
+                lease.inFlight.incrementAndGet();
+                // Checked after announcing the reservation, so release never misses it
+                if (!lease.retired && lease.tryTake(quantity)) {
+                    lease.lastUsed = System.nanoTime();
+                    return new Reservation(lease, quantity);
+                }
+                lease.inFlight.decrementAndGet();
+            }
+            if (!lease(productId, quantity, lease)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finish a reservation once its order transaction completed. Quantities of orders that
+     * were not recorded go back to the lease.
+     */
+    void complete(Reservation reservation, boolean recorded) {
+        LocalLease lease = reservation.lease();
+        if (recorded) {
+            lease.consumed.addAndGet(reservation.quantity());
+        } else {
+            lease.remaining.addAndGet(reservation.quantity());
+        }
+        lease.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Whether unleased stock and what open leases have not sold yet together would cover the
+     * quantity, i.e. whether an order refused by {@link #reserve} may fit once leases go back.
+     * Consumed quantities are flushed with the heartbeat, so this can overestimate.
+     */
+    boolean isHeldByLeases(Long productId, int quantity) {
+        Integer held = jdbcTemplate.queryForObject(HELD_SQL, Integer.class, productId);
+        if (held == null || held <= 0) {
+            return false;
+        }
+        List<Integer> available = jdbcTemplate.queryForList(AVAILABLE_SQL, Integer.class, productId);
+        return !available.isEmpty() && available.get(0) + held >= quantity;
+    }
+
+    /**
+     * Fencing check for the order transaction: the ledger row may only be written while
+     * the lease is active, otherwise its stock may already have been returned. The lease row
+     * stays share-locked until the order transaction ends, so expiring or closing the lease
+     * waits for the orders that passed this check.
+     */
+    boolean isActive(UUID leaseId) {
+        List<String> state = jdbcTemplate.queryForList(LEASE_STATE_SQL + shareLock(), String.class, leaseId);
+        return state.contains(ACTIVE);
+    }
+
+    /**
+     * The lease was found inactive, stop serving from it.
+     */
+    void revoke(UUID leaseId) {
+        leases.values().removeIf(lease -> lease.id.equals(leaseId));
+    }
+
+    private boolean lease(Long productId, int quantity, LocalLease current) {
+        ReentrantLock lock = leaseLocks.computeIfAbsent(productId, id -> new ReentrantLock());
+        lock.lock();
+        try {
+            LocalLease latest = leases.get(productId);
+            if (latest != current && latest != null && latest.isUsable()) {
+                return true; // Another thread leased a new slice meanwhile
+            }
+            LocalLease next = transactionTemplate.execute(status -> takeSlice(productId, quantity));
+            if (latest != null) {
+                retire(latest);
+            }
+            if (next == null && releaseRetired(lease -> lease.productId.equals(productId)) > 0) {
+                // What this node's own retired leases didn't sell is back, it may cover the order
+                next = transactionTemplate.execute(status -> takeSlice(productId, quantity));
+            }
+            if (next == null) {
+                leases.remove(productId);
+                return false;
+            }
+            leases.put(productId, next);
+            acquired.increment();
+            changeNotifier.stockChanged(productId);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private LocalLease takeSlice(Long productId, int quantity) {
+        int amount = Math.max(slice, quantity);
+        if (jdbcTemplate.update(TAKE_STOCK_SQL, amount, productId, amount) == 0) {
+            // Less than a slice left: take the rest if it covers this order
+            Integer available = jdbcTemplate.queryForObject(AVAILABLE_SQL, Integer.class, productId);
+            if (available == null || available < quantity
+                    || jdbcTemplate.update(TAKE_STOCK_SQL, available, productId, available) == 0) {
+                return null;
+            }
+            amount = available;
+        }
+        LocalLease lease = new LocalLease(UUID.randomUUID(), productId, amount);
+        lease.validUntil = System.nanoTime() + leaseTtl.toNanos() * 2 / 3;
+        jdbcTemplate.update(INSERT_LEASE_SQL, lease.id, productId, nodeId, amount, ACTIVE, expiry());
+        return lease;
+    }
+
+    private void retire(LocalLease lease) {
+        lease.retired = true;
+        synchronized (retired) {
+            retired.add(lease);
+        }
+    }
+
+    /**
+     * Extend this node's leases and flush what they consumed, close idle and retired ones.
+     */
+    @Scheduled(fixedDelayString = "${inventory.allotment.heartbeat-interval:10000}")
+    void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (LocalLease lease : leases.values()) {
+            if (now - lease.lastUsed > idleTimeout.toNanos()) {
+                leases.remove(lease.productId, lease);
+                retire(lease);
+                continue;
+            }
+            long sent = System.nanoTime();
+            try {
+                if (jdbcTemplate.update(HEARTBEAT_SQL, expiry(), lease.consumed.get(), lease.id) == 0) {
+                    log.warn("Lease {} of product {} is no longer active, dropping it", lease.id, lease.productId);
+                    leases.remove(lease.productId, lease);
+                } else {
+                    // Stop serving a little before the lease could expire in the database
+                    lease.validUntil = sent + leaseTtl.toNanos() * 2 / 3;
+                }
+            } catch (Exception e) {
+                log.warn("Heartbeat of lease {} failed: {}", lease.id, e.getMessage());
+            }
+        }
+        releaseRetired(lease -> true);
+    }
+
+    // Close the matching retired leases without reservations in flight, returns how many were closed
+    private int releaseRetired(Predicate<LocalLease> which) {
+        List<LocalLease> idle = new ArrayList<>();
+        synchronized (retired) {
+            retired.removeIf(lease -> which.test(lease) && lease.inFlight.get() == 0 && idle.add(lease));
+        }
+        int closed = 0;
+        for (LocalLease lease : idle) {
+            try {
+                if (Boolean.TRUE.equals(transactionTemplate.execute(status -> close(lease.id, lease.productId,
+                        lease.granted, ACTIVE)))) {
+                    released.increment();
+                    changeNotifier.stockChanged(lease.productId);
+                    closed++;
+                }
+            } catch (Exception e) {
+                log.warn("Could not release lease {}, it will be reclaimed after expiry: {}", lease.id, e.getMessage());
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Return the stock of other nodes' expired leases. Runs in two steps: expired leases
+     * are marked first, and only reclaimed once the grace period has passed, so order
+     * transactions that passed the fencing check before the mark have finished.
+     */
+    @Scheduled(fixedDelayString = "${inventory.allotment.reclaim-interval:15000}")
+    void reclaimExpired() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Timestamp now = Timestamp.from(Instant.now());
+            jdbcTemplate.update(EXPIRE_SQL, now, now);
+            Timestamp graceEnd = Timestamp.from(Instant.now().minus(reclaimGrace));
+            jdbcTemplate.query(RECLAIMABLE_SQL, (rs, rowNum) -> new Object[] {
+                    rs.getObject("id", UUID.class), rs.getLong("product_id"), rs.getInt("granted")}, graceEnd)
+                    .forEach(row -> {
+                        Long productId = (Long) row[1];
+                        if (Boolean.TRUE.equals(transactionTemplate.execute(status ->
+                                close((UUID) row[0], productId, (Integer) row[2], EXPIRED)))) {
+                            log.info("Reclaimed expired stock lease {} of product {}", row[0], productId);
+                            reclaimed.increment();
+                            changeNotifier.stockChanged(productId);
+                        }
+                    });
+        } catch (Exception e) {
+            log.warn("Reclaiming expired stock leases failed: {}", e.getMessage());
+        }
+    }
+
+    // Close the lease if it is still in the expected state and give back what it didn't sell
+    private boolean close(UUID leaseId, Long productId, int granted, String expectedState) {
+        if (jdbcTemplate.update(CLOSE_SQL, leaseId, expectedState) == 0) {
+            return false;
+        }
+        Integer sold = jdbcTemplate.queryForObject(SOLD_SQL, Integer.class, leaseId);
+        int unsold = granted - (sold == null ? 0 : sold);
+        if (unsold > 0) {
+            jdbcTemplate.update(RETURN_STOCK_SQL, unsold, productId);
+        }
+        return true;
+    }
+
+    @PreDestroy
+    void releaseAll() {
+        if (!enabled) {
+            return;
+        }
+        leases.values().forEach(this::retire);
+        leases.clear();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            releaseRetired(lease -> true);
+            synchronized (retired) {
+                if (retired.isEmpty()) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // FOR SHARE lets orders from the same lease run concurrently; H2 (tests) only knows FOR UPDATE
+    private String shareLock() {
+        if (shareLock == null) {
+            boolean postgres = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                    "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())));
+            shareLock = postgres ? " FOR SHARE" : " FOR UPDATE";
+        }
+        return shareLock;
+    }
+
+    private Timestamp expiry() {
+        return Timestamp.from(Instant.now().plus(leaseTtl));
+    }
+
+    private static Counter leaseCounter(MeterRegistry meterRegistry, String event) {
+        return Counter.builder("inventory.allotment.leases")
+                .description("Stock leases acquired, released by their node or reclaimed after expiry")
+                .tag("event", event)
+                .register(meterRegistry);
+    }
+
+    record Reservation(LocalLease lease, int quantity) {
+
+        UUID leaseId() {
+            return lease.id;
+        }
+    }
+
+    static final class LocalLease {
+
+        private final UUID id;
+        private final Long productId;
+        private final int granted;
+        private final AtomicInteger remaining;
+        private final AtomicInteger consumed = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean retired;
+        private volatile long validUntil;
+        private volatile long lastUsed = System.nanoTime();
+
+        private LocalLease(UUID id, Long productId, int granted) {
+            this.id = id;
+            this.productId = productId;
+            this.granted = granted;
+            this.remaining = new AtomicInteger(granted);
+        }
+
+        private boolean isUsable() {
+            return !retired && System.nanoTime() < validUntil;
+        }
+
+        private boolean tryTake(int quantity) {
+            int current;
+            do {
+                current = remaining.get();
+                if (current < quantity) {
+                    return false;
+                }
+            } while (!remaining.compareAndSet(current, current - quantity));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.kamruddin.modulith.inventory;
+
+/**
+ * A stock decrement requested by an order.
+ *
+ * @param orderId the order, used to suppress duplicate deliveries; may be {@code null}
+ * @param productId the product to take the stock from
+ * @param quantity the quantity to take
+ */
+public record StockDemand(Long orderId, Long productId, int quantity) {
+}
@@ -0,0 +1,16 @@
+package com.kamruddin.modulith.inventory;
+
+public enum StockUpdateResult {
+
+    APPLIED,
+
+    // The order was already applied by an earlier delivery, nothing was changed
+    DUPLICATE,
+
+    // Not enough stock (or no such product), nothing was changed
+    INSUFFICIENT_STOCK,
+
+    // Not enough unleased stock, but open stock leases may still return enough: retry later
+    STOCK_LEASED
+
+}
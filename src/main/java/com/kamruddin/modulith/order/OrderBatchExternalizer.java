@@ -0,0 +1,63 @@
+package com.kamruddin.modulith.order;
+
+import java.time.Duration;
+
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.kamruddin.modulith.config.RabbitMQConfig;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Externalizes the events of a batch order request after its commit, on the request thread:
+ * every event goes out on one channel, back to back, and with publisher confirms the broker's
+ * acknowledgement of the whole batch is awaited once. The batch's event publication is only
+ * marked complete when this returns, so a batch the broker didn't confirm is published again
+ * by the resubmission; consumers drop the duplicates through the processed-order ledger.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.modulith.events.externalization.enabled", matchIfMissing = true)
+@Slf4j
+class OrderBatchExternalizer {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final Duration confirmTimeout;
+    private final Counter unconfirmed;
+
+    OrderBatchExternalizer(RabbitTemplate rabbitTemplate, MeterRegistry meterRegistry,
+            @Value("${orders.batch.confirm-timeout:5s}") Duration confirmTimeout) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.confirmTimeout = confirmTimeout;
+        this.unconfirmed = Counter.builder("orders.batch.unconfirmed")
+                .description("Order batches whose events the broker did not confirm, left for resubmission")
+                .register(meterRegistry);
+    }
+
+    @TransactionalEventListener
+    void externalize(OrderBatchPlacedEvent batch) {
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (OrderPlacedEvent event : batch.events()) {
+                    operations.convertAndSend(RabbitMQConfig.MODULITH_EXCHANGE,
+                            RabbitMQConfig.ORDER_PLACED_ROUTING_KEY_PREFIX + event.getProductId(), event);
+                }
+                if (rabbitTemplate.getConnectionFactory().isSimplePublisherConfirms()) {
+                    operations.waitForConfirmsOrDie(confirmTimeout.toMillis());
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            unconfirmed.increment();
+            log.warn("Events of a batch of {} orders were not confirmed, left for resubmission: {}",
+                    batch.events().size(), e.getMessage());
+            throw e;
+        }
+        log.info("Externalized batch of {} OrderPlacedEvents", batch.events().size());
+    }
+}
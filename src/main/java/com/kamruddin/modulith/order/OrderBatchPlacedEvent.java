@@ -0,0 +1,11 @@
+package com.kamruddin.modulith.order;
+
+import java.util.List;
+
+/**
+ * The OrderPlacedEvents of one batch order request, published together: the batch gets one
+ * event publication per listener instead of one per order, and its events are externalized
+ * in a single pipelined publish ({@link OrderBatchExternalizer}).
+ */
+public record OrderBatchPlacedEvent(List<OrderPlacedEvent> events) {
+}
@@ -1,16 +1,32 @@
 package com.kamruddin.modulith.order;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
+import jakarta.validation.ConstraintViolation;
 import jakarta.validation.Valid;
+import jakarta.validation.Validator;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import lombok.RequiredArgsConstructor;
 
@@ -19,7 +35,18 @@ import lombok.RequiredArgsConstructor;
 @RequiredArgsConstructor
 public class OrderController {
 
+    // Response header carrying the cursor for the next page, absent on the last page
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
     private final OrderService orderService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+
+    @Value("${orders.batch.max-size:1000}")
+    private int maxBatchSize;
+
+    @Value("${orders.recent.max-window:P31D}")
+    private Duration maxRecentWindow;
 
     @PostMapping
     public ResponseEntity<Order> placeOrder(@Valid @RequestBody Order order) {
@@ -27,9 +54,95 @@ public class OrderController {
         return ResponseEntity.ok(placed);
     }
 
+    // Bulk placement: valid lines are inserted and published in one transaction,
+    // invalid lines are reported individually and do not fail the batch
+    @PostMapping("/batch")
+    public ResponseEntity<List<OrderLineResult>> placeOrders(@RequestBody List<Order> orders) {
+        if (orders.isEmpty() || orders.size() > maxBatchSize) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        OrderLineResult[] results = new OrderLineResult[orders.size()];
+        List<Order> accepted = new ArrayList<>(orders.size());
+        List<Integer> acceptedLines = new ArrayList<>(orders.size());
+        for (int line = 0; line < orders.size(); line++) {
+            Order order = orders.get(line);
+            List<String> errors = validate(order);
+            if (errors.isEmpty()) {
+                accepted.add(order);
+                acceptedLines.add(line);
+            } else {
+                results[line] = OrderLineResult.rejected(line, errors);
+            }
+        }
+
+        // An order for a product that doesn't exist would fail the whole transaction
+        Set<Long> missing = orderService.findMissingProducts(accepted.stream().map(Order::getProductId).toList());
+        if (!missing.isEmpty()) {
+            for (int i = accepted.size() - 1; i >= 0; i--) {
+                if (missing.contains(accepted.get(i).getProductId())) {
+                    int line = acceptedLines.remove(i);
+                    Order order = accepted.remove(i);
+                    results[line] = OrderLineResult.rejected(line, List.of("Product " + order.getProductId() + " not found"));
+                }
+            }
+        }
+
+        if (!accepted.isEmpty()) {
+            List<Order> placed = orderService.placeOrders(accepted);
+            for (int i = 0; i < placed.size(); i++) {
+                results[acceptedLines.get(i)] = OrderLineResult.placed(acceptedLines.get(i), placed.get(i));
+            }
+        }
+        return ResponseEntity.ok(List.of(results));
+    }
+
+    // Paged only when after or limit is given, a plain GET still returns every matching order
     @GetMapping
-    public ResponseEntity<List<Order>> getAllOrders() {
-        return ResponseEntity.ok(orderService.findAll());
+    public ResponseEntity<List<Order>> getOrders(
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) Long productId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        OrderQuery query = new OrderQuery(after, limit != null ? limit : OrderQuery.DEFAULT_LIMIT,
+                status, productId, from, to);
+        if (after == null && limit == null) {
+            return ResponseEntity.ok(orderService.findAll(query));
+        }
+        List<Order> page = orderService.findPage(query);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.size() == query.limit()) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).getId()));
+        }
+        return response.body(page);
+    }
+
+    // Newest first within a bounded window, so only the recent partitions are read
+    @GetMapping("/recent")
+    public ResponseEntity<List<Order>> getRecentOrders(
+            @RequestParam(required = false) Long productId,
+            @RequestParam(required = false) String status,
+            @RequestParam(defaultValue = "P1D") Duration within,
+            @RequestParam(defaultValue = "" + OrderQuery.DEFAULT_LIMIT) int limit) {
+        if (within.isNegative() || within.compareTo(maxRecentWindow) > 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(orderService.findRecent(productId, status, within, limit));
+    }
+
+    // Full export as newline-delimited JSON, written while rows are read from the cursor
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportOrders(
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) Long productId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        OrderQuery query = new OrderQuery(after, OrderQuery.MAX_LIMIT, status, productId, from, to);
+        StreamingResponseBody body = out -> orderService.streamOrders(query, order -> writeLine(out, order));
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     @GetMapping("/{id}")
@@ -39,4 +152,31 @@ public class OrderController {
                 .orElse(ResponseEntity.notFound().build());
     }
 
-}
\ No newline at end of file
+    private List<String> validate(Order order) {
+        List<String> errors = new ArrayList<>();
+        if (order == null) {
+            errors.add("Order line must not be null");
+            return errors;
+        }
+        if (order.getProductId() == null) {
+            errors.add("Product ID is required");
+        }
+        if (order.getQuantity() == null) {
+            errors.add("Quantity is required");
+        }
+        for (ConstraintViolation<Order> violation : validator.validate(order)) {
+            errors.add(violation.getMessage());
+        }
+        return errors;
+    }
+
+    private void writeLine(OutputStream out, Order order) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(order));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.kamruddin.modulith.order;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Group commit for concurrent order placement. Callers enqueue their order and wait;
+ * a single worker collects up to {@code maxGroupSize} orders or waits at most
+ * {@code maxWait}, then writes the whole group in one transaction. Each order is inserted
+ * in its own savepoint, so a failing insert only fails its own caller. Events are published
+ * once all inserts are done and outside of any savepoint: a rolled back savepoint can't
+ * remove the after-commit listeners an event registered, so a failed publication fails
+ * the whole group instead.
+ */
+@Slf4j
+class OrderGroupCommitter implements AutoCloseable {
+
+    private final BlockingQueue<PendingOrder> queue = new LinkedBlockingQueue<>();
+    private final TransactionTemplate groupTransaction;
+    private final TransactionTemplate orderSavepoint;
+    private final UnaryOperator<Order> insert;
+    private final Consumer<Order> publish;
+    private final int maxGroupSize;
+    private final long maxWaitNanos;
+    private final Duration timeout;
+    private final Timer queueWait;
+    private final DistributionSummary groupSize;
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    /**
+     * @param insert writes one order, within the group transaction
+     * @param publish publishes the events of an inserted order, within the group transaction
+     * @param timeout how long a caller waits for its group to start
+     */
+    OrderGroupCommitter(PlatformTransactionManager transactionManager, UnaryOperator<Order> insert,
+            Consumer<Order> publish, int maxGroupSize, Duration maxWait, Duration timeout,
+            MeterRegistry meterRegistry) {
+        this.groupTransaction = new TransactionTemplate(transactionManager);
+        this.orderSavepoint = new TransactionTemplate(transactionManager);
+        this.orderSavepoint.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+        this.insert = insert;
+        this.publish = publish;
+        this.maxGroupSize = maxGroupSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.timeout = timeout;
+        this.queueWait = Timer.builder("orders.group-commit.wait")
+                .description("Time an order waits for its group transaction to start")
+                .register(meterRegistry);
+        this.groupSize = DistributionSummary.builder("orders.group-commit.size")
+                .description("Orders per group commit transaction")
+                .register(meterRegistry);
+        this.worker = new Thread(this::run, "order-group-commit");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Place the order as part of the next group and wait for that group to commit. An order
+     * whose group hasn't started when the timeout passes is not placed and fails with a
+     * TransientDataAccessResourceException. Once its group started, the order may well be
+     * committed, so the caller waits for the outcome however long it takes: giving up then
+     * would make a retry place the order twice.
+     */
+    Order submit(Order order) {
+        if (!running) {
+            throw new IllegalStateException("Order group commit is shut down");
+        }
+        PendingOrder pending = new PendingOrder(order, new CompletableFuture<>(), new AtomicBoolean(), System.nanoTime());
+        queue.add(pending);
+        try {
+            return pending.result().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (pending.claimed().compareAndSet(false, true)) {
+                throw new TransientDataAccessResourceException(
+                        "Order group commit did not start within " + timeout, e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (pending.claimed().compareAndSet(false, true)) {
+                throw new IllegalStateException("Interrupted while waiting for order group commit", e);
+            }
+        } catch (ExecutionException e) {
+            throw failure(e.getCause());
+        }
+        // The worker claimed the order first, its group is being written
+        try {
+            return pending.result().join();
+        } catch (CompletionException e) {
+            throw failure(e.getCause());
+        }
+    }
+
+    private static RuntimeException failure(Throwable cause) {
+        return cause instanceof RuntimeException runtimeException ? runtimeException : new CompletionException(cause);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+        failQueued(new IllegalStateException("Order group commit is shut down"));
+    }
+
+    private void failQueued(Throwable cause) {
+        PendingOrder pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result().completeExceptionally(cause);
+        }
+    }
+
+    private void run() {
+        List<PendingOrder> group = new ArrayList<>(maxGroupSize);
+        while (running) {
+            try {
+                PendingOrder first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (group.size() < maxGroupSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingOrder next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+                commit(group);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                group.forEach(p -> p.result().completeExceptionally(e));
+                return;
+            } catch (Throwable t) {
+                // Nobody may be left waiting on a worker that is gone
+                group.forEach(p -> p.result().completeExceptionally(t));
+                if (t instanceof Error) {
+                    running = false;
+                    failQueued(t);
+                    log.error("Order group commit worker died", t);
+                    throw t;
+                }
+                log.error("Order group commit failed", t);
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingOrder> group) {
+        // Orders whose callers gave up waiting are left out, the others can no longer time out
+        group.removeIf(pending -> !pending.claimed().compareAndSet(false, true));
+        if (group.isEmpty()) {
+            return;
+        }
+        long started = System.nanoTime();
+        group.forEach(pending -> queueWait.record(started - pending.enqueuedAt(), TimeUnit.NANOSECONDS));
+        groupSize.record(group.size());
+        List<PendingOrder> placed = new ArrayList<>(group.size());
+        List<Order> results = new ArrayList<>(group.size());
+        try {
+            groupTransaction.executeWithoutResult(status -> {
+                for (PendingOrder pending : group) {
+                    try {
+                        results.add(orderSavepoint.execute(savepoint -> insert.apply(pending.order())));
+                        placed.add(pending);
+                    } catch (RuntimeException e) {
+                        // Rolled back to this order's savepoint, the rest of the group carries on
+                        pending.result().completeExceptionally(e);
+                    }
+                }
+                results.forEach(publish);
+            });
+        } catch (RuntimeException e) {
+            log.error("Group commit of {} orders failed: {}", group.size(), e.getMessage(), e);
+            placed.forEach(p -> p.result().completeExceptionally(e));
+            return;
+        }
+        for (int i = 0; i < placed.size(); i++) {
+            placed.get(i).result().complete(results.get(i));
+        }
+        log.debug("Group committed {} of {} orders", placed.size(), group.size());
+    }
+
+    /**
+     * @param claimed set by whoever gets to it first: the worker starting the order's group,
+     *        or the caller giving up before that
+     */
+    private record PendingOrder(Order order, CompletableFuture<Order> result, AtomicBoolean claimed,
+            long enqueuedAt) {
+    }
+}
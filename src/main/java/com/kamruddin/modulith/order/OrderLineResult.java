@@ -0,0 +1,22 @@
+package com.kamruddin.modulith.order;
+
+import java.util.List;
+
+/**
+ * Outcome of one line of a batch order request.
+ *
+ * @param line zero-based position of the line in the request
+ * @param orderId the id of the placed order, {@code null} if the line was rejected
+ * @param status {@code PLACED} or {@code REJECTED}
+ * @param errors validation errors for rejected lines
+ */
+public record OrderLineResult(int line, Long orderId, String status, List<String> errors) {
+
+    static OrderLineResult placed(int line, Order order) {
+        return new OrderLineResult(line, order.getId(), order.getStatus(), List.of());
+    }
+
+    static OrderLineResult rejected(int line, List<String> errors) {
+        return new OrderLineResult(line, null, "REJECTED", errors);
+    }
+}
@@ -0,0 +1,338 @@
+package com.kamruddin.modulith.order;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Range-partitions the orders table by month of order_date on PostgreSQL, enabled with
+ * orders.partitioning.enabled. On the first run the existing heap table is converted: it
+ * is renamed to orders_legacy and attached as the partition holding everything up to the
+ * end of the next month (or of its newest order's month), so no row is copied. Whatever
+ * needs a scan or an index build is prepared while orders are still written: a validated
+ * CHECK constraint proves the partition bound, and the unique (id, order_date) index that
+ * backs the partition's primary key is built concurrently. The swap itself takes the
+ * exclusive lock for catalog changes only, waiting at most lock-timeout for it. After that
+ * every run
+ * <ul>
+ * <li>creates the monthly partitions orders_pYYYYMM up to premake-months ahead, moving any
+ * of their rows out of the default partition first, and</li>
+ * <li>detaches (and with drop-retired, drops) partitions that ended more than
+ * retention-months ago.</li>
+ * </ul>
+ * Orders dated beyond the premade partitions land in the default partition orders_default
+ * rather than failing; the orders.partitions.default.rows gauge should stay at zero.
+ * Runs on every replica; an advisory lock makes the runs take turns. The scheduler only
+ * hands each run to a thread of its own: the conversion's validation scan and concurrent
+ * index build, and the wait for another replica's lock, would otherwise hold up Spring Boot's
+ * single scheduling thread and every other scheduled task with it. Other databases keep
+ * the plain table, the indexes from schema.sql serve the same queries there.
+ */
+@Component
+@ConditionalOnProperty(name = "orders.partitioning.enabled", havingValue = "true")
+@Slf4j
+class OrderPartitionManager {
+
+    // Arbitrary key of the advisory lock serializing the maintenance of all replicas
+    private static final long LOCK_KEY = 0x6f72646572734cL;
+    private static final String DEFAULT_PARTITION = "orders_default";
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+    // Partition bounds as PostgreSQL prints them with the session time zone set to UTC
+    private static final DateTimeFormatter BOUND_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ssX");
+    private static final String PARTITIONS_SQL =
+            "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i "
+            + "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'orders'::regclass";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int premakeMonths;
+    private final int retentionMonths;
+    private final boolean dropRetired;
+    private final Duration lockTimeout;
+    private final AtomicLong defaultRows = new AtomicLong();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "orders-partitioning");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Boolean postgres;
+
+    OrderPartitionManager(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${orders.partitioning.premake-months:3}") int premakeMonths,
+            @Value("${orders.partitioning.retention-months:0}") int retentionMonths,
+            @Value("${orders.partitioning.drop-retired:false}") boolean dropRetired,
+            @Value("${orders.partitioning.lock-timeout:5s}") Duration lockTimeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.premakeMonths = premakeMonths;
+        this.retentionMonths = retentionMonths;
+        this.dropRetired = dropRetired;
+        this.lockTimeout = lockTimeout;
+        Gauge.builder("orders.partitions.default.rows", defaultRows, AtomicLong::get)
+                .description("Orders in the default partition, dated beyond the premade partitions")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelay = 0, fixedDelayString = "${orders.partitioning.interval:3600000}")
+    public void scheduleMaintenance() {
+        // A run still in progress, typically a conversion, covers this one
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    maintain();
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    void maintain() {
+        try {
+            if (!isPostgres()) {
+                return;
+            }
+            if (!isPartitioned(jdbcTemplate)) {
+                convert();
+            }
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.execute("SELECT pg_advisory_xact_lock(" + LOCK_KEY + ")");
+                jdbcTemplate.execute("SET LOCAL TimeZone = 'UTC'");
+                createPartitions();
+                retirePartitions();
+                countDefaultRows();
+            });
+        } catch (Exception e) {
+            log.warn("Orders partition maintenance failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private boolean isPostgres() {
+        if (postgres == null) {
+            postgres = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                    "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName()));
+            if (!postgres) {
+                log.info("orders.partitioning.enabled is only supported on PostgreSQL, keeping the plain orders table");
+            }
+        }
+        return postgres;
+    }
+
+    private static boolean isPartitioned(JdbcTemplate jdbc) {
+        return "p".equals(jdbc.queryForObject(
+                "SELECT relkind::text FROM pg_class WHERE oid = 'orders'::regclass", String.class));
+    }
+
+    // CREATE INDEX CONCURRENTLY can't run in a transaction, so the conversion runs on a
+    // connection of its own under the session variant of the advisory lock
+    private void convert() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            JdbcTemplate session = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
+            session.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+            try {
+                if (!isPartitioned(session)) {
+                    swap(connection, session, prepare(session));
+                }
+            } finally {
+                session.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+            return null;
+        });
+    }
+
+    // Scans and index builds ahead of the swap, under locks that let orders be written.
+    // Returns the end of the legacy partition.
+    private YearMonth prepare(JdbcTemplate session) {
+        Timestamp newest = session.queryForObject("SELECT MAX(order_date) FROM orders", Timestamp.class);
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        YearMonth newestMonth = newest != null ? YearMonth.from(newest.toInstant().atOffset(ZoneOffset.UTC)) : null;
+        // Orders keep coming in until the swap, so the legacy partition ends with the month of
+        // its newest order, but covers at least the current and the next month
+        YearMonth legacyEnd = (newestMonth != null && newestMonth.isAfter(current) ? newestMonth : current.plusMonths(1))
+                .plusMonths(1);
+        log.info("Preparing the conversion of orders to a partitioned table, existing rows become partition "
+                + "orders_legacy up to {}", legacyEnd);
+
+        // The partition key is part of every unique key, so order_date can't be null
+        session.update("UPDATE orders SET order_date = CURRENT_TIMESTAMP WHERE order_date IS NULL");
+        // Checked for new rows at once, validated without blocking writes; proves both the
+        // NOT NULL and the partition bound, so neither needs a scan under the exclusive lock
+        session.execute("ALTER TABLE orders DROP CONSTRAINT IF EXISTS orders_legacy_bound");
+        session.execute("ALTER TABLE orders ADD CONSTRAINT orders_legacy_bound "
+                + "CHECK (order_date IS NOT NULL AND order_date < '" + bound(legacyEnd) + "') NOT VALID");
+        session.execute("ALTER TABLE orders VALIDATE CONSTRAINT orders_legacy_bound");
+
+        // A build interrupted by an earlier run leaves an invalid index behind
+        List<Boolean> invalid = session.queryForList(
+                "SELECT NOT indisvalid FROM pg_index WHERE indexrelid = to_regclass('orders_id_date_key')", Boolean.class);
+        if (!invalid.isEmpty() && invalid.get(0)) {
+            session.execute("DROP INDEX CONCURRENTLY orders_id_date_key");
+        }
+        session.execute("CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS orders_id_date_key ON orders (id, order_date)");
+        return legacyEnd;
+    }
+
+    // Swap the heap table for a partitioned one and attach it as its first partition. Only
+    // catalog changes: the indexes, constraints and bound were prepared
+    private void swap(Connection connection, JdbcTemplate session, YearMonth legacyEnd) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            // Waiting writers queue behind the lock request, so give up early and retry next run
+            session.execute("SET LOCAL lock_timeout = " + lockTimeout.toMillis());
+            session.execute("LOCK TABLE orders IN ACCESS EXCLUSIVE MODE");
+            session.execute("ALTER TABLE orders ALTER COLUMN order_date SET NOT NULL");
+            // Attaching to the parent's primary key takes a constraint, not a bare unique index
+            session.execute("ALTER TABLE orders ADD CONSTRAINT orders_id_date_key UNIQUE USING INDEX orders_id_date_key");
+            session.execute("ALTER TABLE orders RENAME TO orders_legacy");
+            session.execute("ALTER TABLE orders_legacy RENAME CONSTRAINT orders_pkey TO orders_legacy_pkey");
+            for (String index : List.of("orders_id_date_key", "orders_product_date_idx", "orders_status_date_idx",
+                    "orders_date_idx")) {
+                session.execute("ALTER INDEX IF EXISTS " + index + " RENAME TO " + index.replace("orders_", "orders_legacy_"));
+            }
+
+            // Same columns and defaults, so ids keep coming from the existing sequence
+            session.execute("CREATE TABLE orders (LIKE orders_legacy INCLUDING DEFAULTS) PARTITION BY RANGE (order_date)");
+            session.execute("ALTER TABLE orders ADD CONSTRAINT orders_pkey PRIMARY KEY (id, order_date)");
+            session.execute("ALTER TABLE orders ADD CONSTRAINT orders_product_id_fkey "
+                    + "FOREIGN KEY (product_id) REFERENCES products(id)");
+            // Indexes on the parent cascade to every partition, the renamed legacy ones are reused
+            session.execute("CREATE INDEX orders_product_date_idx ON orders (product_id, order_date)");
+            session.execute("CREATE INDEX orders_status_date_idx ON orders (status, order_date)");
+            session.execute("CREATE INDEX orders_date_idx ON orders (order_date)");
+            session.execute("ALTER TABLE orders ATTACH PARTITION orders_legacy FOR VALUES FROM (MINVALUE) TO ('"
+                    + bound(legacyEnd) + "')");
+            session.execute("ALTER TABLE orders_legacy DROP CONSTRAINT orders_legacy_bound");
+
+            // Keep the id sequence alive when the legacy partition is dropped one day
+            String sequence = session.queryForObject("SELECT pg_get_serial_sequence('orders_legacy', 'id')", String.class);
+            if (sequence != null) {
+                session.execute("ALTER SEQUENCE " + sequence + " OWNED BY orders.id");
+            }
+            connection.commit();
+            log.info("Converted orders to a partitioned table");
+        } catch (RuntimeException | SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void createPartitions() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + DEFAULT_PARTITION + " PARTITION OF orders DEFAULT");
+        YearMonth month = coveredUntil();
+        YearMonth last = YearMonth.now(ZoneOffset.UTC).plusMonths(premakeMonths);
+        for (; !month.isAfter(last); month = month.plusMonths(1)) {
+            String name = "orders_p" + month.format(DateTimeFormatter.ofPattern("yyyyMM"));
+            String range = "FOR VALUES FROM ('" + bound(month) + "') TO ('" + bound(month.plusMonths(1)) + "')";
+            String inRange = " WHERE order_date >= '" + bound(month) + "' AND order_date < '"
+                    + bound(month.plusMonths(1)) + "'";
+            // A partition can't be created while the default one holds rows of its range
+            Integer stray = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + DEFAULT_PARTITION + inRange, Integer.class);
+            if (stray != null && stray > 0) {
+                jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE orders INCLUDING DEFAULTS)");
+                jdbcTemplate.update("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION + inRange + " RETURNING *) "
+                        + "INSERT INTO " + name + " SELECT * FROM moved");
+                jdbcTemplate.execute("ALTER TABLE orders ATTACH PARTITION " + name + " " + range);
+                log.warn("Created orders partition {} with {} orders moved from {}", name, stray, DEFAULT_PARTITION);
+            } else {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF orders " + range);
+                log.info("Created orders partition {}", name);
+            }
+        }
+    }
+
+    private void countDefaultRows() {
+        Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + DEFAULT_PARTITION, Long.class);
+        defaultRows.set(rows != null ? rows : 0);
+        if (defaultRows.get() > 0) {
+            log.warn("{} orders are in {}, dated beyond the premade partitions", defaultRows.get(), DEFAULT_PARTITION);
+        }
+    }
+
+    private void retirePartitions() {
+        if (retentionMonths <= 0) {
+            return;
+        }
+        Instant cutoff = YearMonth.now(ZoneOffset.UTC).minusMonths(retentionMonths)
+                .atDay(1).atStartOfDay().toInstant(ZoneOffset.UTC);
+        List<String[]> partitions = jdbcTemplate.query(PARTITIONS_SQL,
+                (rs, rowNum) -> new String[] {rs.getString(1), rs.getString(2)});
+        for (String[] partition : partitions) {
+            Instant upper = upperBound(partition[1]);
+            if (upper != null && !upper.isAfter(cutoff)) {
+                jdbcTemplate.execute("ALTER TABLE orders DETACH PARTITION " + partition[0]);
+                if (dropRetired) {
+                    jdbcTemplate.execute("DROP TABLE " + partition[0]);
+                }
+                log.info("Retired orders partition {} ending {}{}", partition[0], upper, dropRetired ? ", dropped" : "");
+            }
+        }
+    }
+
+    // First month without a partition, never before the current month
+    private YearMonth coveredUntil() {
+        YearMonth covered = YearMonth.now(ZoneOffset.UTC);
+        for (String bound : jdbcTemplate.query(PARTITIONS_SQL, (rs, rowNum) -> rs.getString(2))) {
+            Instant upper = upperBound(bound);
+            if (upper != null) {
+                YearMonth end = YearMonth.from(upper.atOffset(ZoneOffset.UTC));
+                if (end.isAfter(covered)) {
+                    covered = end;
+                }
+            }
+        }
+        return covered;
+    }
+
+    private static Instant upperBound(String partitionBound) {
+        Matcher matcher = UPPER_BOUND.matcher(partitionBound);
+        return matcher.find() ? OffsetDateTime.parse(matcher.group(1), BOUND_FORMAT).toInstant() : null;
+    }
+
+    private static String bound(YearMonth month) {
+        return month.atDay(1) + " 00:00:00+00";
+    }
+}
@@ -1,6 +1,7 @@
 package com.kamruddin.modulith.order;
 
 import java.io.Serializable;
+import java.time.Instant;
 
 import org.springframework.modulith.events.Externalized;
 
@@ -11,7 +12,8 @@ import lombok.NoArgsConstructor;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Externalized
+// Routed as order.placed.<productId> so sharded consumers can hash on the product
+@Externalized("modulith::order.placed.#{#this.productId}")
 public class OrderPlacedEvent implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -19,6 +21,7 @@ public class OrderPlacedEvent implements Serializable {
     private Long productId;
     private Integer quantity;
     private Long orderId; // Add order ID for better tracking
+    private Instant placedAt; // When the order was placed, to measure delivery latency
 
     // Constructor for backward compatibility
     public OrderPlacedEvent(Long productId, Integer quantity) {
@@ -0,0 +1,99 @@
+package com.kamruddin.modulith.order;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+import org.springframework.stereotype.Component;
+
+import com.kamruddin.modulith.config.EventCodec;
+
+/**
+ * Binary form of {@link OrderPlacedEvent}, at most 34 bytes instead of ~150 bytes of JSON.
+ * Version 1 layout: version byte, a presence bitmask byte for the nullable fields, then
+ * productId (long), quantity (int), orderId (long) and placedAt (epoch seconds long,
+ * nanos int) for the fields that are set. New fields go into a new version; decode keeps
+ * reading every older version.
+ */
+@Component
+public class OrderPlacedEventCodec implements EventCodec<OrderPlacedEvent> {
+
+    static final byte VERSION_1 = 1;
+
+    private static final int PRODUCT_ID = 1;
+    private static final int QUANTITY = 1 << 1;
+    private static final int ORDER_ID = 1 << 2;
+    private static final int PLACED_AT = 1 << 3;
+
+    @Override
+    public Class<OrderPlacedEvent> type() {
+        return OrderPlacedEvent.class;
+    }
+
+    @Override
+    public byte version() {
+        return VERSION_1;
+    }
+
+    @Override
+    public byte[] encode(OrderPlacedEvent event) {
+        int fields = 0;
+        int size = 2;
+        if (event.getProductId() != null) {
+            fields |= PRODUCT_ID;
+            size += Long.BYTES;
+        }
+        if (event.getQuantity() != null) {
+            fields |= QUANTITY;
+            size += Integer.BYTES;
+        }
+        if (event.getOrderId() != null) {
+            fields |= ORDER_ID;
+            size += Long.BYTES;
+        }
+        if (event.getPlacedAt() != null) {
+            fields |= PLACED_AT;
+            size += Long.BYTES + Integer.BYTES;
+        }
+
+        // Sized exactly, the array is the only allocation
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[size]);
+        buffer.put(VERSION_1).put((byte) fields);
+        if ((fields & PRODUCT_ID) != 0) {
+            buffer.putLong(event.getProductId());
+        }
+        if ((fields & QUANTITY) != 0) {
+            buffer.putInt(event.getQuantity());
+        }
+        if ((fields & ORDER_ID) != 0) {
+            buffer.putLong(event.getOrderId());
+        }
+        if ((fields & PLACED_AT) != 0) {
+            buffer.putLong(event.getPlacedAt().getEpochSecond()).putInt(event.getPlacedAt().getNano());
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public OrderPlacedEvent decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte version = buffer.get();
+        if (version != VERSION_1) {
+            throw new IllegalArgumentException("Unknown OrderPlacedEvent schema version " + version);
+        }
+        int fields = buffer.get();
+        OrderPlacedEvent event = new OrderPlacedEvent();
+        if ((fields & PRODUCT_ID) != 0) {
+            event.setProductId(buffer.getLong());
+        }
+        if ((fields & QUANTITY) != 0) {
+            event.setQuantity(buffer.getInt());
+        }
+        if ((fields & ORDER_ID) != 0) {
+            event.setOrderId(buffer.getLong());
+        }
+        if ((fields & PLACED_AT) != 0) {
+            event.setPlacedAt(Instant.ofEpochSecond(buffer.getLong(), buffer.getInt()));
+        }
+        return event;
+    }
+}
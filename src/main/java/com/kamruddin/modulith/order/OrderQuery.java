@@ -0,0 +1,18 @@
+package com.kamruddin.modulith.order;
+
+import java.time.LocalDateTime;
+
+/**
+ * Filter and keyset cursor for listing orders. Results are ordered by id, and
+ * {@code after} is the last id of the previous page.
+ */
+public record OrderQuery(Long after, int limit, String status, Long productId,
+        LocalDateTime from, LocalDateTime to) {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    public OrderQuery {
+        limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+}
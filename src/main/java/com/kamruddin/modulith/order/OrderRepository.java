@@ -2,6 +2,6 @@ package com.kamruddin.modulith.order;
 
 import org.springframework.data.repository.CrudRepository;
 
-public interface OrderRepository extends CrudRepository<Order, Long> {
+public interface OrderRepository extends CrudRepository<Order, Long>, OrderRepositoryCustom {
 
-}
\ No newline at end of file
+}
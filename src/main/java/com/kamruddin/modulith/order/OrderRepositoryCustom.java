@@ -0,0 +1,52 @@
+package com.kamruddin.modulith.order;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Order queries that avoid loading the whole table: keyset pages and a cursor-backed stream.
+ */
+public interface OrderRepositoryCustom {
+
+    /**
+     * Return at most {@code query.limit()} orders with an id greater than {@code query.after()}.
+     */
+    List<Order> findPage(OrderQuery query);
+
+    /**
+     * Return every matching order, ordered by id, ignoring {@code query.limit()}.
+     */
+    List<Order> findAll(OrderQuery query);
+
+    /**
+     * Return the newest matching orders first, at most {@code query.limit()}. With
+     * {@code query.from()} set, only the partitions of that window are read.
+     */
+    List<Order> findRecent(OrderQuery query);
+
+    /**
+     * Hand every matching order to the consumer while reading it from a JDBC cursor.
+     * Must be called inside a transaction for PostgreSQL to honour the fetch size.
+     */
+    void streamAll(OrderQuery query, Consumer<Order> consumer);
+
+    /**
+     * Insert all orders with a single JDBC batch and assign their generated ids.
+     */
+    List<Order> insertAll(List<Order> orders);
+
+    /**
+     * @return those of the product ids that exist
+     */
+    Set<Long> findExistingProductIds(Collection<Long> productIds);
+
+    /**
+     * Set the order to FAILED with the reason, unless it already failed.
+     *
+     * @return whether the order was marked
+     */
+    boolean markFailed(Long id, String reason);
+
+}
@@ -0,0 +1,145 @@
+package com.kamruddin.modulith.order;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+class OrderRepositoryCustomImpl implements OrderRepositoryCustom {
+
+    private static final String SELECT_ORDERS =
+            "SELECT id, product_id, quantity, order_date, status FROM orders";
+    private static final String INSERT_ORDER =
+            "INSERT INTO orders (product_id, quantity, order_date, status) "
+            + "VALUES (:productId, :quantity, :orderDate, :status)";
+    private static final String MARK_FAILED =
+            "UPDATE orders SET status = 'FAILED', failure_reason = :reason WHERE id = :id AND status <> 'FAILED'";
+    private static final String EXISTING_PRODUCT_IDS = "SELECT id FROM products WHERE id IN (:ids)";
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    static final RowMapper<Order> ORDER_ROW_MAPPER = OrderRepositoryCustomImpl::mapOrder;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate streamingJdbcTemplate;
+
+    OrderRepositoryCustomImpl(DataSource dataSource) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        JdbcTemplate streaming = new JdbcTemplate(dataSource);
+        streaming.setFetchSize(STREAM_FETCH_SIZE);
+        this.streamingJdbcTemplate = new NamedParameterJdbcTemplate(streaming);
+    }
+
+    @Override
+    public List<Order> findPage(OrderQuery query) {
+        MapSqlParameterSource params = new MapSqlParameterSource("limit", query.limit());
+        String sql = SELECT_ORDERS + where(query, params) + " ORDER BY id LIMIT :limit";
+        return jdbcTemplate.query(sql, params, ORDER_ROW_MAPPER);
+    }
+
+    @Override
+    public List<Order> findAll(OrderQuery query) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return jdbcTemplate.query(SELECT_ORDERS + where(query, params) + " ORDER BY id", params, ORDER_ROW_MAPPER);
+    }
+
+    @Override
+    public List<Order> findRecent(OrderQuery query) {
+        MapSqlParameterSource params = new MapSqlParameterSource("limit", query.limit());
+        String sql = SELECT_ORDERS + where(query, params) + " ORDER BY order_date DESC, id DESC LIMIT :limit";
+        return jdbcTemplate.query(sql, params, ORDER_ROW_MAPPER);
+    }
+
+    @Override
+    public void streamAll(OrderQuery query, Consumer<Order> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String sql = SELECT_ORDERS + where(query, params) + " ORDER BY id";
+        RowCallbackHandler handler = rs -> consumer.accept(mapOrder(rs, 0));
+        streamingJdbcTemplate.query(sql, params, handler);
+    }
+
+    @Override
+    public List<Order> insertAll(List<Order> orders) {
+        SqlParameterSource[] batch = new SqlParameterSource[orders.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            batch[i] = new MapSqlParameterSource()
+                    .addValue("productId", order.getProductId())
+                    .addValue("quantity", order.getQuantity())
+                    .addValue("orderDate", Timestamp.valueOf(order.getOrderDate()))
+                    .addValue("status", order.getStatus());
+        }
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(INSERT_ORDER, batch, keyHolder, new String[] { "id" });
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < orders.size(); i++) {
+            orders.get(i).setId(((Number) keys.get(i).get("id")).longValue());
+        }
+        return orders;
+    }
+
+    // Keyset pagination, listing and export all share the same filter clause
+    private static String where(OrderQuery query, MapSqlParameterSource params) {
+        StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+        if (query.after() != null) {
+            where.append(" AND id > :after");
+            params.addValue("after", query.after());
+        }
+        if (query.status() != null) {
+            where.append(" AND status = :status");
+            params.addValue("status", query.status());
+        }
+        if (query.productId() != null) {
+            where.append(" AND product_id = :productId");
+            params.addValue("productId", query.productId());
+        }
+        if (query.from() != null) {
+            where.append(" AND order_date >= :from");
+            params.addValue("from", Timestamp.valueOf(query.from()));
+        }
+        if (query.to() != null) {
+            where.append(" AND order_date < :to");
+            params.addValue("to", Timestamp.valueOf(query.to()));
+        }
+        return where.toString();
+    }
+
+    @Override
+    public Set<Long> findExistingProductIds(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return Set.of();
+        }
+        return new HashSet<>(jdbcTemplate.queryForList(EXISTING_PRODUCT_IDS,
+                new MapSqlParameterSource("ids", productIds), Long.class));
+    }
+
+    @Override
+    public boolean markFailed(Long id, String reason) {
+        return jdbcTemplate.update(MARK_FAILED, new MapSqlParameterSource("id", id).addValue("reason", reason)) > 0;
+    }
+
+    private static Order mapOrder(ResultSet rs, int rowNum) throws SQLException {
+        Timestamp orderDate = rs.getTimestamp("order_date");
+        return new Order(
+                rs.getLong("id"),
+                rs.getLong("product_id"),
+                rs.getInt("quantity"),
+                orderDate != null ? orderDate.toLocalDateTime() : null,
+                rs.getString("status"));
+    }
+}
@@ -1,13 +1,28 @@
 package com.kamruddin.modulith.order;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -18,30 +33,165 @@ public class OrderService {
 
     private final OrderRepository orderRepository;
     private final ApplicationEventPublisher eventPublisher;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${orders.group-commit.enabled:false}")
+    private boolean groupCommitEnabled;
+
+    @Value("${orders.group-commit.max-size:64}")
+    private int groupCommitMaxSize;
+
+    @Value("${orders.group-commit.max-wait:2ms}")
+    private Duration groupCommitMaxWait;
+
+    @Value("${orders.group-commit.timeout:30s}")
+    private Duration groupCommitTimeout;
+
+    private TransactionTemplate transactionTemplate;
+    private OrderGroupCommitter groupCommitter;
+
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        if (groupCommitEnabled) {
+            log.info("Order group commit enabled: up to {} orders or {} per transaction",
+                    groupCommitMaxSize, groupCommitMaxWait);
+            groupCommitter = new OrderGroupCommitter(transactionManager, this::insert, this::publish,
+                    groupCommitMaxSize, groupCommitMaxWait, groupCommitTimeout, meterRegistry);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+        }
+    }
 
     public List<Order> findAll() {
         return (List<Order>) orderRepository.findAll();
     }
 
+    public List<Order> findAll(OrderQuery query) {
+        return orderRepository.findAll(query);
+    }
+
+    public List<Order> findPage(OrderQuery query) {
+        return orderRepository.findPage(query);
+    }
+
+    /**
+     * Newest orders placed within the window, optionally of one product or status.
+     */
+    public List<Order> findRecent(Long productId, String status, Duration within, int limit) {
+        LocalDateTime from = LocalDateTime.now().minus(within);
+        return orderRepository.findRecent(new OrderQuery(null, limit, status, productId, from, null));
+    }
+
+    // Read-only transaction keeps the JDBC cursor open while rows are handed to the consumer
+    @Transactional(readOnly = true)
+    public void streamOrders(OrderQuery query, Consumer<Order> consumer) {
+        orderRepository.streamAll(query, consumer);
+    }
+
     public Optional<Order> findById(Long id) {
         return orderRepository.findById(id);
     }
 
-    @Transactional
+    /**
+     * Place a single order. With orders.group-commit.enabled the order shares its commit
+     * with other concurrent orders; otherwise it gets a transaction of its own.
+     */
     public Order placeOrder(Order order) {
-        order.setStatus("PLACED");
-        order.setOrderDate(LocalDateTime.now());
-        Order saved = orderRepository.save(order);
-        // Publish event with order ID for better tracking
-        log.info("Publishing OrderPlacedEvent for order ID: {}", saved.getId());
-        eventPublisher.publishEvent(new OrderPlacedEvent(saved.getProductId(), saved.getQuantity(), saved.getId()));
-        log.info("OrderPlacedEvent published successfully for order ID: {}", saved.getId());
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            Order placed = groupCommitter != null
+                    ? groupCommitter.submit(order)
+                    : transactionTemplate.execute(status -> insertAndPublish(order));
+            outcome = "success";
+            return placed;
+        } finally {
+            sample.stop(Timer.builder("orders.place")
+                    .description("Time to place an order, including its event publication")
+                    .tag("path", groupCommitter != null ? "group-commit" : "direct")
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Place all orders in one transaction: a single JDBC batch insert and one
+     * {@link OrderBatchPlacedEvent} carrying an OrderPlacedEvent per order, committed together.
+     * After the commit {@link OrderBatchExternalizer} publishes the events in one pipelined,
+     * confirmed publish.
+     */
+    public List<Order> placeOrders(List<Order> orders) {
+        return transactionTemplate.execute(status -> insertAllAndPublish(orders));
+    }
+
+    /**
+     * @return the given product ids that don't exist, orders for them would fail the whole batch
+     */
+    public Set<Long> findMissingProducts(Collection<Long> productIds) {
+        Set<Long> missing = new HashSet<>(productIds);
+        missing.removeAll(orderRepository.findExistingProductIds(missing));
+        return missing;
+    }
+
+    // Must run inside a transaction
+    private List<Order> insertAllAndPublish(List<Order> orders) {
+        LocalDateTime now = LocalDateTime.now();
+        Instant placedAt = Instant.now();
+        for (Order order : orders) {
+            order.setStatus("PLACED");
+            order.setOrderDate(now);
+        }
+        List<Order> saved = orderRepository.insertAll(orders);
+        List<OrderPlacedEvent> events = new ArrayList<>(saved.size());
+        for (Order order : saved) {
+            events.add(new OrderPlacedEvent(order.getProductId(), order.getQuantity(), order.getId(), placedAt));
+        }
+        eventPublisher.publishEvent(new OrderBatchPlacedEvent(events));
+        log.info("Placed batch of {} orders and published their OrderPlacedEvents", saved.size());
         return saved;
     }
 
+    /**
+     * Record that the order could not be fulfilled, e.g. its product ran out of stock.
+     */
+    @Transactional
+    public void markFailed(Long orderId, String reason) {
+        if (orderRepository.markFailed(orderId, reason)) {
+            log.warn("Order {} failed: {}", orderId, reason);
+        }
+    }
+
     @Transactional
     public void deleteById(Long id) {
         orderRepository.deleteById(id);
     }
 
-}
\ No newline at end of file
+    // Must run inside a transaction
+    private Order insertAndPublish(Order order) {
+        Order saved = insert(order);
+        publish(saved);
+        return saved;
+    }
+
+    private Order insert(Order order) {
+        order.setStatus("PLACED");
+        order.setOrderDate(LocalDateTime.now());
+        return orderRepository.save(order);
+    }
+
+    private void publish(Order saved) {
+        // Publish event with order ID for better tracking
+        log.info("Publishing OrderPlacedEvent for order ID: {}", saved.getId());
+        eventPublisher.publishEvent(new OrderPlacedEvent(saved.getProductId(), saved.getQuantity(), saved.getId(),
+                Instant.now()));
+        log.info("OrderPlacedEvent published successfully for order ID: {}", saved.getId());
+    }
+
+}
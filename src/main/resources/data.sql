@@ -1,5 +1,8 @@
-INSERT INTO products (name, description, price, stock_quantity) VALUES
+-- Sample products, only into an empty table so that restarts don't insert them again
+INSERT INTO products (name, description, price, stock_quantity)
+SELECT name, description, price, stock_quantity FROM (VALUES
 ('Laptop', 'High-performance laptop', 999.99, 50),
 ('Mouse', 'Wireless mouse', 25.99, 100),
 ('Keyboard', 'Mechanical keyboard', 79.99, 75),
-('Monitor', '27-inch 4K monitor', 349.99, 30);
\ No newline at end of file
+('Monitor', '27-inch 4K monitor', 349.99, 30)) AS sample (name, description, price, stock_quantity)
+WHERE NOT EXISTS (SELECT 1 FROM products);
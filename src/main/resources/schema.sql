@@ -4,17 +4,65 @@ CREATE TABLE if not exists products (
     description TEXT,
     price DECIMAL(10,2) NOT NULL,
     stock_quantity INTEGER NOT NULL DEFAULT 0,
-    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    version BIGINT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
 );
 
+-- Bumped by every product write, stock updates included (ETags of the catalog endpoints)
+ALTER TABLE products ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE products ADD COLUMN IF NOT EXISTS updated_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP;
+
 CREATE TABLE if not exists orders (
     id SERIAL PRIMARY KEY,
     product_id INTEGER NOT NULL REFERENCES products(id),
     quantity INTEGER NOT NULL,
     order_date TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
-    status VARCHAR(20) NOT NULL DEFAULT 'PENDING'
+    status VARCHAR(20) NOT NULL DEFAULT 'PENDING',
+    failure_reason VARCHAR(255)
 );
 
+-- Why an order ended up FAILED (out of stock, retries exhausted)
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS failure_reason VARCHAR(255);
+
+-- Order listings filter by product or status within a date window, recent-first.
+-- With orders.partitioning.enabled OrderPartitionManager recreates them on the partitioned table.
+CREATE INDEX if not exists orders_product_date_idx ON orders (product_id, order_date);
+CREATE INDEX if not exists orders_status_date_idx ON orders (status, order_date);
+CREATE INDEX if not exists orders_date_idx ON orders (order_date);
+
+-- Orders whose stock update has been applied, written in the same transaction as the
+-- update so a redelivered OrderPlacedEvent cannot decrement the stock twice
+CREATE TABLE if not exists processed_order_events (
+    order_id BIGINT PRIMARY KEY,
+    product_id BIGINT NOT NULL,
+    quantity INTEGER NOT NULL,
+    processed_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP,
+    lease_id UUID
+);
+
+-- Orders served from a stock lease reference it, their sum is what the lease sold
+ALTER TABLE processed_order_events ADD COLUMN IF NOT EXISTS lease_id UUID;
+CREATE INDEX if not exists processed_order_events_lease_idx ON processed_order_events (lease_id);
+-- Rows past inventory.ledger.retention are purged in chunks
+CREATE INDEX if not exists processed_order_events_processed_at_idx ON processed_order_events (processed_at);
+
+-- Slices of product stock leased by a node (inventory.allotment.enabled); the granted
+-- quantity is taken off products.stock_quantity and what the lease didn't sell is returned
+-- when it is closed by its node or reclaimed after expiry
+CREATE TABLE if not exists stock_leases (
+    id UUID PRIMARY KEY,
+    product_id BIGINT NOT NULL,
+    node_id VARCHAR(36) NOT NULL,
+    granted INTEGER NOT NULL,
+    consumed INTEGER NOT NULL DEFAULT 0,
+    state VARCHAR(16) NOT NULL,
+    expires_at TIMESTAMP WITH TIME ZONE NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX if not exists stock_leases_state_idx ON stock_leases (state, expires_at);
+
 -- Spring Modulith event publication table
 CREATE TABLE if not exists event_publication (
     id UUID PRIMARY KEY,
@@ -25,10 +73,22 @@ CREATE TABLE if not exists event_publication (
     listener_id VARCHAR(255) NOT NULL
 );
 
--- Spring Integration distributed lock table
-CREATE TABLE if not exists "INT_LOCK" (
-    LOCK_KEY VARCHAR(36) NOT NULL PRIMARY KEY,
-    REGION VARCHAR(100) NOT NULL,
-    CLIENT_ID VARCHAR(36),
-    CREATED_DATE TIMESTAMP WITH TIME ZONE NOT NULL
-);
\ No newline at end of file
+-- Incomplete publications are looked up by completion_date IS NULL ordered by publication_date
+-- (resubmission, republish on restart); the same index serves the purge of completed rows
+CREATE INDEX if not exists event_publication_completion_idx
+    ON event_publication (completion_date, publication_date);
+
+-- Completed publications moved out of event_publication by EventPublicationPurger
+CREATE TABLE if not exists event_publication_archive (
+    id UUID PRIMARY KEY,
+    publication_date TIMESTAMP WITH TIME ZONE NOT NULL,
+    completion_date TIMESTAMP WITH TIME ZONE,
+    event_type VARCHAR(255) NOT NULL,
+    serialized_event TEXT NOT NULL,
+    listener_id VARCHAR(255) NOT NULL,
+    archived_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Lock tables of earlier versions; INT_LOCK is left for replicas of the version before the
+-- processed-order ledger and can be dropped once none of them runs
+DROP TABLE IF EXISTS modulith_lock;
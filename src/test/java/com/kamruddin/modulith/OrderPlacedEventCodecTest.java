@@ -0,0 +1,59 @@
+package com.kamruddin.modulith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+
+import com.kamruddin.modulith.config.CodecMessageConverter;
+import com.kamruddin.modulith.config.EventCodecs;
+import com.kamruddin.modulith.order.OrderPlacedEvent;
+import com.kamruddin.modulith.order.OrderPlacedEventCodec;
+
+class OrderPlacedEventCodecTest {
+
+    private final OrderPlacedEventCodec codec = new OrderPlacedEventCodec();
+
+    @Test
+    void shouldRoundTripEvent() {
+        OrderPlacedEvent event = new OrderPlacedEvent(42L, 3, 7L, Instant.parse("2024-05-01T10:15:30.123456789Z"));
+
+        byte[] bytes = codec.encode(event);
+
+        assertThat(bytes).hasSize(34);
+        assertThat(codec.decode(bytes)).isEqualTo(event);
+    }
+
+    @Test
+    void shouldRoundTripMissingFields() {
+        OrderPlacedEvent event = new OrderPlacedEvent(42L, 3);
+
+        assertThat(codec.decode(codec.encode(event))).isEqualTo(event);
+    }
+
+    @Test
+    void shouldRejectUnknownVersion() {
+        assertThatThrownBy(() -> codec.decode(new byte[] {99, 0}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldReadJsonMessagesWhenWritingBinary() {
+        OrderPlacedEvent event = new OrderPlacedEvent(42L, 3, 7L, Instant.now());
+        Jackson2JsonMessageConverter json = new Jackson2JsonMessageConverter();
+        CodecMessageConverter binary = new CodecMessageConverter(new EventCodecs(List.of(codec), "binary"), json);
+
+        Message binaryMessage = binary.toMessage(event, new MessageProperties());
+        Message jsonMessage = json.toMessage(event, new MessageProperties());
+
+        assertThat(binaryMessage.getMessageProperties().getContentType()).isEqualTo(CodecMessageConverter.CONTENT_TYPE);
+        assertThat(binary.fromMessage(binaryMessage)).isEqualTo(event);
+        assertThat(binary.fromMessage(jsonMessage)).isEqualTo(event);
+    }
+}
@@ -0,0 +1,108 @@
+package com.kamruddin.modulith;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.kamruddin.modulith.inventory.Product;
+import com.kamruddin.modulith.inventory.ProductService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ProductServiceConcurrencyTest {
+
+    private static final int INITIAL_STOCK = 500;
+    private static final int THREADS = 16;
+    private static final int ATTEMPTS_PER_THREAD = 50;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void concurrentUpdatesOnHotProductNeverOversell() throws Exception {
+        Long productId = product(INITIAL_STOCK);
+
+        int succeeded = decrementConcurrently(productId);
+
+        // Exactly the available stock was sold, never more
+        assertThat(succeeded).isEqualTo(INITIAL_STOCK);
+        assertThat(stockOf(productId)).isZero();
+    }
+
+    @Test
+    void concurrentUpdatesOnHotProductAreNeverLost() throws Exception {
+        int attempts = THREADS * ATTEMPTS_PER_THREAD;
+        Long productId = product(attempts + INITIAL_STOCK);
+        long version = versionOf(productId);
+
+        int succeeded = decrementConcurrently(productId);
+
+        // Every decrement counted, each as an update of its own
+        assertThat(succeeded).isEqualTo(attempts);
+        assertThat(stockOf(productId)).isEqualTo(INITIAL_STOCK);
+        assertThat(versionOf(productId)).isEqualTo(version + attempts);
+    }
+
+    @Test
+    void updateStockRejectsQuantityAboveAvailableStock() {
+        Product product = productService.save(new Product(null, "Scarce item", null,
+                new BigDecimal("1.00"), 3, null, null, null));
+
+        assertThat(productService.updateStock(product.getId(), 4)).isFalse();
+        assertThat(productService.updateStock(product.getId(), 3)).isTrue();
+        assertThat(stockOf(product.getId())).isZero();
+    }
+
+    // THREADS threads decrementing the stock by one ATTEMPTS_PER_THREAD times each, all at once
+    private int decrementConcurrently(Long productId) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                int succeeded = 0;
+                for (int attempt = 0; attempt < ATTEMPTS_PER_THREAD; attempt++) {
+                    if (productService.updateStock(productId, 1)) {
+                        succeeded++;
+                    }
+                }
+                return succeeded;
+            }));
+        }
+        start.countDown();
+        int succeeded = 0;
+        for (Future<Integer> result : results) {
+            succeeded += result.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        return succeeded;
+    }
+
+    private Long product(int stock) {
+        return productService.save(new Product(null, "Hot item", "Flash sale item",
+                new BigDecimal("9.99"), stock, null, null, null)).getId();
+    }
+
+    private int stockOf(Long productId) {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM products WHERE id = ?", Integer.class, productId);
+    }
+
+    private long versionOf(Long productId) {
+        return jdbcTemplate.queryForObject("SELECT version FROM products WHERE id = ?", Long.class, productId);
+    }
+}
@@ -0,0 +1,86 @@
+package com.kamruddin.modulith;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.kamruddin.modulith.config.ConcurrencyLimitedDataSource;
+import com.kamruddin.modulith.inventory.Product;
+import com.kamruddin.modulith.inventory.ProductService;
+import com.kamruddin.modulith.order.Order;
+import com.kamruddin.modulith.order.OrderService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * In virtual-thread mode, places many more concurrent orders than there are connections:
+ * the excess callers must wait at the connection limiter rather than fail, every order must
+ * be placed and applied, and all permits must be back once the work is done. Throughput of
+ * platform vs virtual threads is measured by VirtualThreadBenchmark (jmh profile).
+ */
+@SpringBootTest(properties = {
+    "spring.threads.virtual.enabled=true",
+    "spring.datasource.hikari.maximum-pool-size=" + VirtualThreadConnectionLimitTest.POOL_SIZE,
+    "inventory.delivery.mode=local",
+    "spring.modulith.events.externalization.enabled=false"
+})
+class VirtualThreadConnectionLimitTest {
+
+    static final int POOL_SIZE = 4;
+    private static final int ORDERS = 200;
+
+    @Autowired
+    private OrderService orderService;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void excessCallersWaitForAConnectionInsteadOfFailing() throws Exception {
+        assertThat(dataSource).isInstanceOf(ConcurrencyLimitedDataSource.class);
+        ConcurrencyLimitedDataSource limited = (ConcurrencyLimitedDataSource) dataSource;
+
+        Product product = productService.save(new Product(null, "Limited item", null,
+                new BigDecimal("1.00"), ORDERS, null, null, null));
+        double waitedBefore = limited.getAcquireWaitNanos();
+
+        List<Future<Order>> placed = new ArrayList<>(ORDERS);
+        try (ExecutorService virtual = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < ORDERS; i++) {
+                placed.add(virtual.submit(() -> orderService.placeOrder(new Order(null, product.getId(), 1, null, null))));
+            }
+            for (Future<Order> order : placed) {
+                assertThat(order.get(60, TimeUnit.SECONDS).getId()).isNotNull();
+            }
+        }
+        assertThat(limited.getAcquireWaitNanos()).isGreaterThan(waitedBefore);
+
+        // The stock is applied by the asynchronous module listener, through the same limiter
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        int stock;
+        do {
+            Thread.sleep(100);
+            stock = productService.findById(product.getId()).orElseThrow().getStockQuantity();
+        } while (stock > 0 && System.nanoTime() < deadline);
+        assertThat(stock).isZero();
+
+        while (limited.getAvailable() < POOL_SIZE && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(limited.getAvailable()).isEqualTo(POOL_SIZE);
+        assertThat(limited.getWaiting()).isZero();
+    }
+}
@@ -0,0 +1,51 @@
+package com.kamruddin.modulith.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    private final AdaptiveConcurrencyLimiter limiter =
+            new AdaptiveConcurrencyLimiter(4, 2, 100, 2.0, 0.5, Duration.ofMinutes(1));
+
+    @Test
+    void shouldRejectCallsOverTheLimit() {
+        for (int i = 0; i < 4; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(limiter.getRejected()).isEqualTo(1);
+
+        limiter.release(MILLIS, false);
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void shouldGrowWhileLatencyIsSteady() {
+        for (int i = 0; i < 200; i++) {
+            for (int call = 0; call < 3; call++) {
+                limiter.tryAcquire();
+            }
+            for (int call = 0; call < 3; call++) {
+                limiter.release(MILLIS, false);
+            }
+        }
+
+        assertThat(limiter.getLimit()).isGreaterThan(4);
+    }
+
+    @Test
+    void shouldShrinkWhenCallsFail() throws InterruptedException {
+        limiter.tryAcquire();
+        Thread.sleep(2);
+        limiter.release(MILLIS, true);
+
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+}
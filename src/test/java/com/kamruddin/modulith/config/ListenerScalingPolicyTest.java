@@ -0,0 +1,67 @@
+package com.kamruddin.modulith.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.kamruddin.modulith.config.ListenerScalingPolicy.Decision;
+
+class ListenerScalingPolicyTest {
+
+    private static final double MILLIS = 1_000_000;
+
+    private final ListenerScalingPolicy policy = new ListenerScalingPolicy(1, 20, 10, 250,
+            Duration.ofSeconds(10), Duration.ofMillis(200), Duration.ofMillis(50));
+
+    @Test
+    void shouldGrowAtMostTwofoldTowardsTheDrainTarget() {
+        // 1000 messages at 40 ms each need 4 consumers to drain in 10 s, more shrink one at a time
+        assertThat(policy.consumers(2, 1000, 40 * MILLIS, false, 100)).isEqualTo(new Decision(4, "backlog"));
+        assertThat(policy.consumers(8, 1000, 40 * MILLIS, false, 100)).isEqualTo(new Decision(7, "backlog"));
+        assertThat(policy.consumers(4, 5000, 20 * MILLIS, false, 100)).isEqualTo(new Decision(8, "backlog"));
+    }
+
+    @Test
+    void shouldStayWithinThePoolBudgetAndBounds() {
+        assertThat(policy.consumers(4, 100_000, 10 * MILLIS, false, 6).consumers()).isEqualTo(6);
+        assertThat(policy.consumers(16, 100_000, 10 * MILLIS, false, 100).consumers()).isEqualTo(20);
+        assertThat(policy.consumers(1, 0, 10 * MILLIS, false, 100).consumers()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotGrowWhileLatencyIsHigh() {
+        assertThat(policy.consumers(4, 10_000, 80 * MILLIS, false, 100)).isEqualTo(new Decision(4, "latency"));
+    }
+
+    @Test
+    void shouldShrinkWhileThePoolIsSaturated() {
+        assertThat(policy.consumers(8, 10_000, 10 * MILLIS, true, 100)).isEqualTo(new Decision(6, "pool_saturated"));
+        assertThat(policy.consumers(2, 10_000, 10 * MILLIS, true, 100)).isEqualTo(new Decision(1, "pool_saturated"));
+    }
+
+    @Test
+    void shouldShrinkOneAtATimeWhenIdle() {
+        assertThat(policy.consumers(5, 0, 0, false, 100)).isEqualTo(new Decision(4, "idle"));
+        // Nothing processed yet but messages waiting: try one more consumer
+        assertThat(policy.consumers(5, 10, 0, false, 100)).isEqualTo(new Decision(6, "backlog"));
+    }
+
+    @Test
+    void shouldBufferAboutPrefetchBufferOfWork() {
+        assertThat(policy.prefetch(2 * MILLIS)).isEqualTo(100);
+        assertThat(policy.prefetch(0.1 * MILLIS)).isEqualTo(250);
+        assertThat(policy.prefetch(100 * MILLIS)).isEqualTo(10);
+        assertThat(policy.prefetch(0)).isZero();
+    }
+
+    @Test
+    void shouldRestartOnlyForATwofoldPrefetchChange() {
+        assertThat(policy.isWorthRestart(250, 100)).isTrue();
+        assertThat(policy.isWorthRestart(100, 200)).isTrue();
+        assertThat(policy.isWorthRestart(100, 150)).isFalse();
+        assertThat(policy.isWorthRestart(100, 60)).isFalse();
+        assertThat(policy.isWorthRestart(100, 0)).isFalse();
+    }
+}
@@ -0,0 +1,170 @@
+package com.kamruddin.modulith.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The product read endpoints as served from the catalog snapshot, and the versioned writes
+ * their ETags depend on.
+ */
+@SpringBootTest(properties = "spring.modulith.events.externalization.enabled=false")
+@AutoConfigureMockMvc
+class CatalogSnapshotTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CatalogSnapshot catalogSnapshot;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void replicasHandOutTheSameEtagsForTheSameData() throws Exception {
+        Product product = product("Replicated item", 10);
+        // Caught up with the database the way the periodic full reload would
+        catalogSnapshot.onProductChanged(null, false);
+        String productEtag = read("/api/products/" + product.getId()).getHeader(HttpHeaders.ETAG);
+        String pageEtag = read("/api/products?after=" + (product.getId() - 1) + "&limit=1").getHeader(HttpHeaders.ETAG);
+        String catalogEtag = read("/api/products/catalog").getHeader(HttpHeaders.ETAG);
+
+        // Another replica builds its snapshot from the same rows on its own
+        CatalogSnapshot replica = new CatalogSnapshot(productRepository, objectMapper, transactionManager);
+
+        assertThat(replica.product(product.getId()).orElseThrow().etag()).isEqualTo(productEtag);
+        assertThat(replica.page(product.getId() - 1, 1).etag()).isEqualTo(pageEtag);
+        assertThat(replica.catalog().etag()).isEqualTo(catalogEtag);
+    }
+
+    @Test
+    void matchingIfNoneMatchIsAnsweredWithNotModified() throws Exception {
+        Product product = product("Polled item", 10);
+
+        for (String uri : new String[] {"/api/products/" + product.getId(),
+                "/api/products?after=" + (product.getId() - 1) + "&limit=1", "/api/products/catalog"}) {
+            String etag = read(uri).getHeader(HttpHeaders.ETAG);
+            assertThat(etag).startsWith("\"");
+
+            MockHttpServletResponse response = mockMvc.perform(get(uri).header(HttpHeaders.IF_NONE_MATCH, etag))
+                    .andExpect(status().isNotModified())
+                    .andReturn().getResponse();
+            assertThat(response.getContentAsByteArray()).isEmpty();
+        }
+    }
+
+    @Test
+    void stockUpdateChangesTheEtag() throws Exception {
+        Product product = product("Selling item", 10);
+        String uri = "/api/products/" + product.getId();
+        String before = read(uri).getHeader(HttpHeaders.ETAG);
+        String catalogBefore = read("/api/products/catalog").getHeader(HttpHeaders.ETAG);
+
+        assertThat(productService.updateStock(product.getId(), 3)).isTrue();
+
+        MockHttpServletResponse response = mockMvc.perform(get(uri).header(HttpHeaders.IF_NONE_MATCH, before))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isNotEqualTo(before);
+        assertThat(objectMapper.readValue(response.getContentAsByteArray(), Product.class).getStockQuantity())
+                .isEqualTo(7);
+        assertThat(read("/api/products/catalog").getHeader(HttpHeaders.ETAG)).isNotEqualTo(catalogBefore);
+    }
+
+    @Test
+    void gzippedCatalogHasAnEtagOfItsOwn() throws Exception {
+        product("Compressed item", 10);
+        MockHttpServletResponse plain = read("/api/products/catalog");
+        MockHttpServletResponse gzipped = mockMvc.perform(get("/api/products/catalog")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+
+        assertThat(plain.getHeader(HttpHeaders.CONTENT_ENCODING)).isNull();
+        assertThat(gzipped.getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(String.join(",", gzipped.getHeaders(HttpHeaders.VARY))).contains(HttpHeaders.ACCEPT_ENCODING);
+        String gzipEtag = gzipped.getHeader(HttpHeaders.ETAG);
+        assertThat(gzipEtag).isNotEqualTo(plain.getHeader(HttpHeaders.ETAG));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getContentAsByteArray()))) {
+            assertThat(in.readAllBytes()).isEqualTo(plain.getContentAsByteArray());
+        }
+
+        // The gzip tag only matches the gzipped representation
+        mockMvc.perform(get("/api/products/catalog")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.IF_NONE_MATCH, gzipEtag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/products/catalog").header(HttpHeaders.IF_NONE_MATCH, gzipEtag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void updatesWithAStaleVersionAreRejectedAndUnversionedOnesOverwrite() throws Exception {
+        Product product = product("Edited item", 10);
+        long products = productRepository.count();
+        Product read = objectMapper.readValue(read("/api/products/" + product.getId()).getContentAsByteArray(),
+                Product.class);
+
+        read.setName("Edited item, renamed");
+        mockMvc.perform(post("/api/products").contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsBytes(read)))
+                .andExpect(status().isOk());
+        assertThat(productService.findById(product.getId()).orElseThrow().getName()).isEqualTo("Edited item, renamed");
+
+        // Still the version before the rename
+        read.setName("Edited item, lost update");
+        mockMvc.perform(post("/api/products").contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsBytes(read)))
+                .andExpect(status().isConflict());
+        assertThat(productService.findById(product.getId()).orElseThrow().getName()).isEqualTo("Edited item, renamed");
+
+        // Without a version the last writer wins, and the cached product is evicted
+        read.setName("Edited item, overwritten");
+        read.setVersion(null);
+        Product saved = objectMapper.readValue(mockMvc.perform(post("/api/products")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsBytes(read)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray(), Product.class);
+
+        assertThat(saved.getVersion()).isGreaterThan(product.getVersion() + 1);
+        assertThat(productService.findById(product.getId()).orElseThrow().getName())
+                .isEqualTo("Edited item, overwritten");
+        assertThat(productRepository.count()).isEqualTo(products);
+    }
+
+    private Product product(String name, int stock) {
+        return productService.save(new Product(null, name, null, new BigDecimal("1.00"), stock, null, null, null));
+    }
+
+    private MockHttpServletResponse read(String uri) throws Exception {
+        return mockMvc.perform(get(uri)).andExpect(status().isOk()).andReturn().getResponse();
+    }
+}
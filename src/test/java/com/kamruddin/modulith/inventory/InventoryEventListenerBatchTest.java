@@ -0,0 +1,126 @@
+package com.kamruddin.modulith.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import com.kamruddin.modulith.config.RabbitMQConfig;
+import com.kamruddin.modulith.order.OrderPlacedEvent;
+import com.rabbitmq.client.Channel;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * How the batch listener settles a batch: what is failed, retried and acknowledged.
+ */
+class InventoryEventListenerBatchTest {
+
+    private final List<String> settled = new ArrayList<>();
+    private final List<String> channelCalls = new ArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private RuntimeException retryFailure;
+
+    private final OrderEventRetrier retrier = new OrderEventRetrier(null, null, meterRegistry,
+            new Duration[] {Duration.ofSeconds(1)}, Duration.ofSeconds(1)) {
+        @Override
+        void retry(OrderPlacedEvent event, String queue, int attempt, Exception cause) {
+            if (retryFailure != null) {
+                throw retryFailure;
+            }
+            settled.add("retry " + event.getOrderId() + " " + queue + " " + attempt);
+        }
+
+        @Override
+        void fail(OrderPlacedEvent event, String reason) {
+            settled.add("fail " + event.getOrderId() + " " + reason);
+        }
+    };
+
+    private final Channel channel = (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(),
+            new Class<?>[] {Channel.class}, (proxy, method, args) -> {
+                channelCalls.add(method.getName() + " " + Arrays.toString(args));
+                return null;
+            });
+
+    @Test
+    void shouldFailRetryAndAcknowledgeAPartlyAppliedBatchAtOnce() {
+        List<Message<OrderPlacedEvent>> batch = List.of(message(1, 1L, null), message(2, 2L, null), message(3, 3L, 1));
+
+        listener(demands -> {
+            Map<StockDemand, StockUpdateResult> failed = new IdentityHashMap<>();
+            failed.put(demands.get(1), StockUpdateResult.INSUFFICIENT_STOCK);
+            failed.put(demands.get(2), StockUpdateResult.STOCK_LEASED);
+            return failed;
+        }).handleExternalOrderPlacedBatch(batch, channel);
+
+        assertThat(settled).containsExactly(
+                "fail 2 " + OrderEventRetrier.INSUFFICIENT_STOCK,
+                "retry 3 " + RabbitMQConfig.ORDER_EVENTS_QUEUE + " 1");
+        assertThat(channelCalls).containsExactly("basicAck [3, true]");
+    }
+
+    @Test
+    void shouldRetryEveryOrderOfABatchWhoseTransactionFailed() {
+        List<Message<OrderPlacedEvent>> batch = List.of(message(1, 1L, null), message(2, 2L, 2));
+
+        listener(demands -> {
+            throw new TransientDataAccessResourceException("connection lost");
+        }).handleExternalOrderPlacedBatch(batch, channel);
+
+        assertThat(settled).containsExactly(
+                "retry 1 " + RabbitMQConfig.ORDER_EVENTS_QUEUE + " 0",
+                "retry 2 " + RabbitMQConfig.ORDER_EVENTS_QUEUE + " 2");
+        assertThat(channelCalls).containsExactly("basicAck [2, true]");
+    }
+
+    @Test
+    void shouldRequeueTheBatchWhenNoRetryCouldBeScheduled() {
+        List<Message<OrderPlacedEvent>> batch = List.of(message(1, 1L, null), message(2, 2L, null));
+        retryFailure = new AmqpTimeoutException("no confirm");
+
+        listener(demands -> {
+            throw new TransientDataAccessResourceException("connection lost");
+        }).handleExternalOrderPlacedBatch(batch, channel);
+
+        assertThat(settled).isEmpty();
+        assertThat(channelCalls).containsExactly("basicNack [2, true, true]");
+        assertThat(meterRegistry.get("inventory.order.nacks").tag("listener", "batch").tag("reason", "database")
+                .counter().count()).isEqualTo(2.0);
+    }
+
+    private InventoryEventListener listener(
+            Function<List<StockDemand>, Map<StockDemand, StockUpdateResult>> updateStockBatch) {
+        ProductService productService = new ProductService(null, null, null, null, null, null) {
+            @Override
+            public Map<StockDemand, StockUpdateResult> updateStockBatch(List<StockDemand> demands) {
+                return updateStockBatch.apply(demands);
+            }
+        };
+        return new InventoryEventListener(productService, retrier, meterRegistry);
+    }
+
+    private static Message<OrderPlacedEvent> message(long deliveryTag, Long orderId, Integer attempt) {
+        MessageBuilder<OrderPlacedEvent> message = MessageBuilder
+                .withPayload(new OrderPlacedEvent(10L + orderId, 1, orderId, null))
+                .setHeader(AmqpHeaders.DELIVERY_TAG, deliveryTag)
+                .setHeader(AmqpHeaders.CONSUMER_QUEUE, RabbitMQConfig.ORDER_EVENTS_QUEUE);
+        if (attempt != null) {
+            message.setHeader(RabbitMQConfig.RETRY_ATTEMPT_HEADER, attempt);
+        }
+        return message.build();
+    }
+}
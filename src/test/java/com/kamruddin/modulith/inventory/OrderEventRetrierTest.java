@@ -0,0 +1,138 @@
+package com.kamruddin.modulith.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.AmqpTimeoutException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import com.kamruddin.modulith.config.RabbitMQConfig;
+import com.kamruddin.modulith.order.OrderPlacedEvent;
+import com.kamruddin.modulith.order.OrderService;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class OrderEventRetrierTest {
+
+    private static final Duration[] DELAYS = {Duration.ofSeconds(1), Duration.ofSeconds(5)};
+
+    private final RecordingRabbitTemplate rabbitTemplate = new RecordingRabbitTemplate();
+    private final Map<Long, String> failedOrders = new HashMap<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OrderEventRetrier retrier = new OrderEventRetrier(rabbitTemplate,
+            new OrderService(null, null, null, null) {
+                @Override
+                public void markFailed(Long orderId, String reason) {
+                    failedOrders.put(orderId, reason);
+                }
+            }, meterRegistry, DELAYS, Duration.ofSeconds(1));
+
+    private final OrderPlacedEvent event = new OrderPlacedEvent(7L, 1, 42L, Instant.now());
+
+    @Test
+    void shouldParkTransientFailuresInTheNextTier() {
+        retrier.retry(event, RabbitMQConfig.ORDER_EVENTS_QUEUE, 1, new IllegalStateException("database down"));
+
+        assertThat(rabbitTemplate.sent).hasSize(1);
+        Sent sent = rabbitTemplate.sent.get(0);
+        assertThat(sent.exchange()).isEqualTo(RabbitMQConfig.ORDER_RETRY_TIER_EXCHANGE);
+        assertThat(sent.routingKey()).isEqualTo("order.placed.7");
+        assertThat(sent.headers().get(RabbitMQConfig.RETRY_TIER_HEADER)).isEqualTo("1");
+        assertThat(sent.headers().get(RabbitMQConfig.RETRY_ATTEMPT_HEADER)).isEqualTo(2);
+        assertThat(sent.headers().get(RabbitMQConfig.RETRY_TARGET_HEADER)).isEqualTo(RabbitMQConfig.ORDER_EVENTS_QUEUE);
+        assertThat(rabbitTemplate.confirmsAwaited).isEqualTo(1);
+        assertThat(failedOrders).isEmpty();
+        assertThat(meterRegistry.get("inventory.order.failures").tag("outcome", "retried").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void shouldHashRetriesOfAShardAgain() {
+        retrier.retry(event, RabbitMQConfig.shardQueueName(3), 0, new IllegalStateException("timeout"));
+
+        assertThat(rabbitTemplate.sent.get(0).headers().get(RabbitMQConfig.RETRY_TARGET_HEADER))
+                .isEqualTo(RabbitMQConfig.ORDER_EVENTS_SHARDED_EXCHANGE);
+    }
+
+    @Test
+    void shouldDeadLetterAndFailTheOrderOnceTheTiersAreUsedUp() {
+        retrier.retry(event, RabbitMQConfig.ORDER_EVENTS_QUEUE, DELAYS.length, new IllegalStateException("still down"));
+
+        Sent sent = rabbitTemplate.sent.get(0);
+        assertThat(sent.exchange()).isEmpty();
+        assertThat(sent.routingKey()).isEqualTo(RabbitMQConfig.ORDER_DEAD_LETTER_QUEUE);
+        assertThat(sent.headers().get(RabbitMQConfig.RETRY_TARGET_HEADER)).isEqualTo(RabbitMQConfig.ORDER_EVENTS_QUEUE);
+        assertThat(sent.headers().get(RabbitMQConfig.FAILURE_REASON_HEADER))
+                .isEqualTo("IllegalStateException: still down");
+        assertThat(rabbitTemplate.confirmsAwaited).isEqualTo(1);
+        assertThat(failedOrders.get(42L)).startsWith("retries exhausted");
+    }
+
+    @Test
+    void shouldFailOutOfStockOrdersWithoutPublishing() {
+        retrier.fail(event, OrderEventRetrier.INSUFFICIENT_STOCK);
+
+        assertThat(rabbitTemplate.sent).isEmpty();
+        assertThat(failedOrders.get(42L)).isEqualTo(OrderEventRetrier.INSUFFICIENT_STOCK);
+    }
+
+    @Test
+    void shouldNotSettleWhenTheBrokerDoesNotConfirm() {
+        rabbitTemplate.confirms = false;
+
+        assertThatThrownBy(() -> retrier.retry(event, RabbitMQConfig.ORDER_EVENTS_QUEUE, DELAYS.length,
+                new IllegalStateException("down"))).isInstanceOf(AmqpTimeoutException.class);
+        assertThat(failedOrders).isEmpty();
+    }
+
+    private record Sent(String exchange, String routingKey, Object payload, Map<String, Object> headers) {
+    }
+
+    // Runs the operations on itself and records what they publish
+    private static class RecordingRabbitTemplate extends RabbitTemplate {
+
+        private final List<Sent> sent = new ArrayList<>();
+        private int confirmsAwaited;
+        private boolean confirms = true;
+
+        RecordingRabbitTemplate() {
+            CachingConnectionFactory connectionFactory = new CachingConnectionFactory();
+            connectionFactory.setPublisherConfirmType(CachingConnectionFactory.ConfirmType.SIMPLE);
+            setConnectionFactory(connectionFactory);
+        }
+
+        // RabbitTemplate.ConfirmCallback would shadow the client's callback type
+        @Override
+        public <T> T invoke(OperationsCallback<T> action, com.rabbitmq.client.ConfirmCallback acks,
+                com.rabbitmq.client.ConfirmCallback nacks) {
+            return action.doInRabbit(this);
+        }
+
+        @Override
+        public void convertAndSend(String exchange, String routingKey, Object object,
+                MessagePostProcessor messagePostProcessor) {
+            Message message = messagePostProcessor.postProcessMessage(new Message(new byte[0], new MessageProperties()));
+            sent.add(new Sent(exchange, routingKey, object, message.getMessageProperties().getHeaders()));
+        }
+
+        @Override
+        public void waitForConfirmsOrDie(long timeout) {
+            confirmsAwaited++;
+            if (!confirms) {
+                throw new AmqpTimeoutException("No confirm within " + timeout + " ms");
+            }
+        }
+    }
+}
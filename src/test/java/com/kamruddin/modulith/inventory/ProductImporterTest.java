@@ -0,0 +1,97 @@
+package com.kamruddin.modulith.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest(properties = {
+    "spring.modulith.events.externalization.enabled=false",
+    "inventory.import.chunk-size=2"
+})
+class ProductImporterTest {
+
+    @Autowired
+    private ProductImporter importer;
+
+    @Autowired
+    private ProductService productService;
+
+    @Test
+    void updateWithoutStockOrDescriptionKeepsThem() {
+        Product product = productService.save(new Product(null, "Imported item", "Keeps its description",
+                new BigDecimal("1.00"), 42, null, null, null));
+
+        ProductImportResult result = importCsv("id,name,price\n" + product.getId() + ",Renamed item,2.50\n");
+
+        assertThat(result.imported()).isEqualTo(1);
+        Product updated = productService.findById(product.getId()).orElseThrow();
+        assertThat(updated.getName()).isEqualTo("Renamed item");
+        assertThat(updated.getPrice()).isEqualByComparingTo("2.50");
+        assertThat(updated.getDescription()).isEqualTo("Keeps its description");
+        assertThat(updated.getStockQuantity()).isEqualTo(42);
+    }
+
+    @Test
+    void nonNumericJsonValuesAreRejected() {
+        String body = """
+                {"name": "Text stock", "price": 1.00, "stockQuantity": "lots"}
+                {"name": "Fractional id", "id": 1.5, "price": 1.00}
+                {"name": "Text price", "price": "cheap"}
+                {"name": "Fine", "price": 1.00, "stockQuantity": 3}
+                """;
+
+        ProductImportResult result = importer.importProducts(stream(body), ProductImporter.Format.NDJSON);
+
+        assertThat(result.imported()).isEqualTo(1);
+        assertThat(result.rejected()).isEqualTo(3);
+        assertThat(result.errors().get(0).errors()).containsExactly("Invalid stock_quantity: \"lots\"");
+        assertThat(result.errors().get(1).errors()).containsExactly("Invalid id: 1.5");
+        assertThat(result.errors().get(2).errors()).containsExactly("Invalid price: \"cheap\"");
+    }
+
+    @Test
+    void chunksCommitOnTheirOwn() {
+        Product first = product("Chunked 1");
+        Product second = product("Chunked 2");
+        String csv = "id,name,price,stock_quantity\n"
+                + first.getId() + ",Chunked 1,1.00,10\n"
+                + second.getId() + ",Chunked 2,1.00,20\n"
+                + first.getId() + ",Chunked 1,1.00,30\n";
+        InputStream broken = new SequenceInputStream(stream(csv), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        });
+
+        assertThatThrownBy(() -> importer.importProducts(broken, ProductImporter.Format.CSV))
+                .isInstanceOf(UncheckedIOException.class);
+
+        // The first chunk was committed, the unfinished second one was not written
+        assertThat(productService.findById(first.getId()).orElseThrow().getStockQuantity()).isEqualTo(10);
+        assertThat(productService.findById(second.getId()).orElseThrow().getStockQuantity()).isEqualTo(20);
+    }
+
+    private Product product(String name) {
+        return productService.save(new Product(null, name, null, new BigDecimal("1.00"), 1, null, null, null));
+    }
+
+    private ProductImportResult importCsv(String csv) {
+        return importer.importProducts(stream(csv), ProductImporter.Format.CSV);
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
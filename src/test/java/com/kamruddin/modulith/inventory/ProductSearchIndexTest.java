@@ -0,0 +1,143 @@
+package com.kamruddin.modulith.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ProductSearchIndexTest {
+
+    private final ProductSearchIndex index = new ProductSearchIndex(32, 24, 50);
+
+    @Test
+    void shouldRankNameOverDescriptionAndExactOverPrefix() {
+        index.put(product(1, "Laptop stand", "Aluminium"));
+        index.put(product(2, "Desk", "Holds a laptop"));
+        index.put(product(3, "Laptops", null));
+
+        // laptop in the name, laptops as a prefix match in the name, laptop in the description
+        assertThat(ids(index.search("laptop", 10))).containsExactly(1L, 3L, 2L);
+        assertThat(ids(index.search("LAPTOP", 2))).containsExactly(1L, 3L);
+    }
+
+    @Test
+    void shouldRankRareTermsHigherAndBreakTiesByProductId() {
+        index.put(product(7, "Desk lamp", null));
+        index.put(product(5, "Desk lamp", null));
+        index.put(product(1, "Lamp", "For the desk"));
+        index.put(product(2, "Desk", "With a lamp"));
+        index.put(product(3, "Floor lamp", null));
+        index.put(product(4, "Lamp shade", null));
+        index.put(product(6, "Standing desk", null));
+
+        // desk is rarer than lamp, so desk in the name counts for more than lamp in the name
+        assertThat(ids(index.search("desk lamp", 10))).containsExactly(5L, 7L, 2L, 1L);
+        assertThat(ids(index.search("desk", 10))).containsExactly(2L, 5L, 6L, 7L, 1L);
+        // No operators: or is a term like any other
+        assertThat(index.search("desk or lamp", 10)).isEmpty();
+    }
+
+    @Test
+    void shouldMatchEveryQueryTermAsWholeTermOrPrefix() {
+        index.put(product(1, "USB cable", "Braided, two metres"));
+        index.put(product(2, "Cables organiser", null));
+        index.put(product(3, "USB hub", null));
+
+        assertThat(ids(index.search("cab", 10))).containsExactly(1L, 2L);
+        assertThat(ids(index.search("usb cab", 10))).containsExactly(1L);
+        assertThat(ids(index.search("usb bra", 10))).containsExactly(1L);
+        assertThat(index.search("usb mouse", 10)).isEmpty();
+        // Shorter than a term, and nothing but separators
+        assertThat(index.search("c", 10)).isEmpty();
+        assertThat(index.search(" -, ", 10)).isEmpty();
+    }
+
+    @Test
+    void shouldExpandAPrefixToAtMostMaxExpansionsTerms() {
+        ProductSearchIndex narrow = new ProductSearchIndex(32, 24, 2);
+        narrow.put(product(1, "Cable", null));
+        narrow.put(product(2, "Cables", null));
+        narrow.put(product(3, "Cabling", null));
+
+        // cable, cables and cabling in term order, the third one is not expanded
+        assertThat(ids(narrow.search("cab", 10))).containsExactly(1L, 2L);
+        assertThat(ids(narrow.search("cabl", 10))).containsExactly(1L, 2L);
+        assertThat(ids(narrow.search("cabling", 10))).containsExactly(3L);
+    }
+
+    @Test
+    void shouldOnlyMatchTheLatestTextOfAChangedProduct() {
+        index.put(product(1, "Laptop stand", "Aluminium"));
+        index.put(product(2, "Desk", null));
+        long postings = index.postings();
+
+        // Same name and description: the stock change leaves the index alone
+        Product restocked = product(1, "Laptop stand", "Aluminium");
+        restocked.setStockQuantity(99);
+        index.put(restocked);
+        assertThat(index.postings()).isEqualTo(postings);
+
+        index.put(product(1, "Monitor arm", "Aluminium"));
+        assertThat(index.search("laptop", 10)).isEmpty();
+        assertThat(ids(index.search("monitor", 10))).containsExactly(1L);
+        assertThat(ids(index.search("aluminium", 10))).containsExactly(1L);
+        assertThat(index.size()).isEqualTo(2);
+        // The old postings stay behind as tombstones
+        assertThat(index.postings()).isGreaterThan(postings);
+
+        // Text moved between the fields changes the product as well
+        index.put(product(1, "Monitor", "arm Aluminium"));
+        assertThat(index.search("arm", 10).get(0).score())
+                .isLessThan(index.search("monitor", 10).get(0).score());
+
+        index.remove(2L);
+        assertThat(index.search("desk", 10)).isEmpty();
+        assertThat(index.size()).isEqualTo(1);
+        index.remove(2L);
+        assertThat(index.size()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCompactTombstonesIntoTheIndexOfTheLatestProducts() {
+        int products = 8;
+        int rounds = 128;
+        for (int i = 1; i <= products; i++) {
+            index.put(product(i, "Widget r0 p" + i, "Gadget"));
+        }
+        // 1024 replaced versions, the threshold for a compaction
+        for (int round = 1; round <= rounds; round++) {
+            for (int i = 1; i <= products; i++) {
+                index.put(product(i, "Widget r" + round + " p" + i, "Gadget"));
+            }
+        }
+
+        ProductSearchIndex fresh = new ProductSearchIndex(32, 24, 50);
+        for (int i = 1; i <= products; i++) {
+            fresh.put(product(i, "Widget r" + rounds + " p" + i, "Gadget"));
+        }
+        assertThat(index.postings()).isEqualTo(fresh.postings());
+        assertThat(index.terms()).isEqualTo(fresh.terms());
+        assertThat(index.size()).isEqualTo(products);
+        assertThat(index.search("r0", 10)).isEmpty();
+        assertThat(ids(index.search("r" + rounds, 10))).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L);
+        assertThat(index.search("gadget", 10)).isEqualTo(fresh.search("gadget", 10));
+
+        // Renumbered ordinals still lead to their products
+        assertThat(ids(index.search("p3", 10))).containsExactly(3L);
+        index.put(product(3, "Gizmo", "Gadget"));
+        assertThat(ids(index.search("gizmo", 10))).containsExactly(3L);
+        assertThat(index.search("p3", 10)).isEmpty();
+        index.remove(5L);
+        assertThat(ids(index.search("widget", 10))).containsExactly(1L, 2L, 4L, 6L, 7L, 8L);
+    }
+
+    private static Product product(long id, String name, String description) {
+        return new Product(id, name, description, new BigDecimal("1.00"), 1, null, 0L, null);
+    }
+
+    private static List<Long> ids(List<ProductSearchIndex.Hit> hits) {
+        return hits.stream().map(ProductSearchIndex.Hit::productId).toList();
+    }
+}
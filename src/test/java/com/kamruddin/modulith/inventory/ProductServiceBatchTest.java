@@ -0,0 +1,94 @@
+package com.kamruddin.modulith.inventory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Batched stock updates of the batch listener, applied straight to the products table
+ * (stock allotments disabled).
+ */
+@SpringBootTest(properties = "spring.modulith.events.externalization.enabled=false")
+class ProductServiceBatchTest {
+
+    // Far above the ids of orders placed by other tests
+    private final AtomicLong orderIds = new AtomicLong(8_000_000_000L + System.nanoTime() % 1_000_000_000L);
+
+    @Autowired
+    private ProductService productService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void demandsForTheSameProductAreCombinedIntoOneUpdate() {
+        Long first = product(10);
+        Long second = product(10);
+        long firstVersion = versionOf(first);
+        List<StockDemand> batch = List.of(
+                new StockDemand(orderIds.incrementAndGet(), first, 3),
+                new StockDemand(orderIds.incrementAndGet(), second, 2),
+                new StockDemand(orderIds.incrementAndGet(), first, 4));
+
+        assertThat(productService.updateStockBatch(batch)).isEmpty();
+
+        assertThat(stockOf(first)).isEqualTo(3);
+        assertThat(stockOf(second)).isEqualTo(8);
+        // Every UPDATE bumps the version once
+        assertThat(versionOf(first)).isEqualTo(firstVersion + 1);
+
+        // A redelivered batch finds its orders in the ledger
+        assertThat(productService.updateStockBatch(batch)).isEmpty();
+        assertThat(stockOf(first)).isEqualTo(3);
+        assertThat(stockOf(second)).isEqualTo(8);
+    }
+
+    @Test
+    void demandsThatOversellTogetherAreAppliedOneByOne() {
+        Long productId = product(5);
+        StockDemand fits = new StockDemand(orderIds.incrementAndGet(), productId, 3);
+        StockDemand tooLarge = new StockDemand(orderIds.incrementAndGet(), productId, 4);
+        StockDemand fitsTheRest = new StockDemand(orderIds.incrementAndGet(), productId, 2);
+
+        Map<StockDemand, StockUpdateResult> failed = productService.updateStockBatch(
+                List.of(fits, tooLarge, fitsTheRest));
+
+        assertThat(failed.keySet()).containsExactly(tooLarge);
+        assertThat(failed.get(tooLarge)).isEqualTo(StockUpdateResult.INSUFFICIENT_STOCK);
+        assertThat(stockOf(productId)).isZero();
+        assertThat(recorded(fits.orderId())).isTrue();
+        assertThat(recorded(fitsTheRest.orderId())).isTrue();
+        // The rejected order is not taken for a duplicate once there is stock again
+        assertThat(recorded(tooLarge.orderId())).isFalse();
+
+        jdbcTemplate.update("UPDATE products SET stock_quantity = 4 WHERE id = ?", productId);
+        assertThat(productService.updateStockBatch(List.of(tooLarge))).isEmpty();
+        assertThat(stockOf(productId)).isZero();
+    }
+
+    private Long product(int stock) {
+        return productService.save(new Product(null, "Batched item", null, new BigDecimal("1.00"), stock,
+                null, null, null)).getId();
+    }
+
+    private int stockOf(Long productId) {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM products WHERE id = ?", Integer.class, productId);
+    }
+
+    private long versionOf(Long productId) {
+        return jdbcTemplate.queryForObject("SELECT version FROM products WHERE id = ?", Long.class, productId);
+    }
+
+    private boolean recorded(Long orderId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM processed_order_events WHERE order_id = ?",
+                Integer.class, orderId) > 0;
+    }
+}
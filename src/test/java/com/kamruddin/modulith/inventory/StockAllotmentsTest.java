@@ -0,0 +1,202 @@
+package com.kamruddin.modulith.inventory;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stock allotments of two nodes sharing one database: each node is a ProductService with
+ * allotments of its own, the application's ProductService keeps them disabled.
+ */
+@SpringBootTest(properties = "spring.modulith.events.externalization.enabled=false")
+class StockAllotmentsTest {
+
+    private static final int SLICE = 20;
+    private static final Duration LEASE_TTL = Duration.ofSeconds(30);
+
+    // Far above the ids of orders placed by other tests
+    private final AtomicLong orderIds = new AtomicLong(9_000_000_000L + System.nanoTime() % 1_000_000_000L);
+    private final List<StockAllotments> nodes = new ArrayList<>();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private ProductChangeNotifier changeNotifier;
+
+    @Autowired
+    private ProcessedOrderLedger ledger;
+
+    @Autowired
+    private ProductService productService;
+
+    @AfterEach
+    void releaseLeases() {
+        nodes.forEach(StockAllotments::releaseAll);
+    }
+
+    @Test
+    void concurrentOrdersOnTwoNodesSellEveryUnitOnce() throws Exception {
+        int stock = 500;
+        Long productId = product(stock);
+        List<ProductService> services = List.of(node(Duration.ofSeconds(30)), node(Duration.ofSeconds(30)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            ProductService node = services.get(i % 2);
+            results.add(executor.submit(() -> {
+                start.await();
+                int applied = 0;
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+                while (System.nanoTime() < deadline) {
+                    StockUpdateResult result = node.applyOrder(new StockDemand(orderIds.incrementAndGet(), productId, 1));
+                    if (result == StockUpdateResult.APPLIED) {
+                        applied++;
+                    } else if (result == StockUpdateResult.INSUFFICIENT_STOCK) {
+                        break;
+                    }
+                    // STOCK_LEASED: the other node still sells from its lease, try again
+                }
+                return applied;
+            }));
+        }
+        start.countDown();
+        int applied = 0;
+        for (Future<Integer> result : results) {
+            applied += result.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(applied).isEqualTo(stock);
+        assertThat(sold(productId)).isEqualTo(stock);
+        nodes.forEach(StockAllotments::releaseAll);
+        assertThat(stockOf(productId)).isZero();
+        assertThat(openLeases(productId)).isZero();
+    }
+
+    @Test
+    void expiredLeaseIsNotSoldFromAfterItWasReclaimed() throws Exception {
+        Long productId = product(100);
+        ProductService servingNode = node(Duration.ofSeconds(30));
+        StockAllotments reclaimingNode = allotments(Duration.ZERO);
+
+        Long firstOrder = orderIds.incrementAndGet();
+        assertThat(servingNode.applyOrder(new StockDemand(firstOrder, productId, 1))).isEqualTo(StockUpdateResult.APPLIED);
+        UUID expiredLease = leaseOf(firstOrder);
+        assertThat(stockOf(productId)).isEqualTo(100 - SLICE);
+
+        // The serving node missed its heartbeats, another node reclaims the lease
+        jdbcTemplate.update("UPDATE stock_leases SET expires_at = ? WHERE id = ?",
+                Timestamp.from(Instant.now().minusSeconds(60)), expiredLease);
+        reclaimingNode.reclaimExpired();
+        Thread.sleep(20);
+        reclaimingNode.reclaimExpired();
+        assertThat(stockOf(productId)).isEqualTo(99);
+
+        // Still valid in the serving node's memory, but the fencing check refuses it
+        Long secondOrder = orderIds.incrementAndGet();
+        assertThat(servingNode.applyOrder(new StockDemand(secondOrder, productId, 1))).isEqualTo(StockUpdateResult.APPLIED);
+        assertThat(leaseOf(secondOrder)).isNotEqualTo(expiredLease);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM processed_order_events WHERE lease_id = ?", Integer.class, expiredLease))
+                .isEqualTo(1);
+
+        nodes.forEach(StockAllotments::releaseAll);
+        assertThat(stockOf(productId)).isEqualTo(98);
+    }
+
+    @Test
+    void rolledBackReservationGoesBackToTheLease() {
+        Long productId = product(50);
+        ProductService node = node(Duration.ofSeconds(30));
+
+        Long rolledBack = orderIds.incrementAndGet();
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertThat(node.applyOrder(new StockDemand(rolledBack, productId, 5))).isEqualTo(StockUpdateResult.APPLIED);
+            status.setRollbackOnly();
+        });
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM processed_order_events WHERE order_id = ?", Integer.class, rolledBack))
+                .isZero();
+
+        // The whole slice is available again from the same lease
+        Long wholeSlice = orderIds.incrementAndGet();
+        assertThat(node.applyOrder(new StockDemand(wholeSlice, productId, SLICE))).isEqualTo(StockUpdateResult.APPLIED);
+        assertThat(stockOf(productId)).isEqualTo(50 - SLICE);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM stock_leases WHERE product_id = ?", Integer.class, productId))
+                .isEqualTo(1);
+
+        nodes.forEach(StockAllotments::releaseAll);
+        assertThat(stockOf(productId)).isEqualTo(50 - SLICE);
+    }
+
+    private Long product(int stock) {
+        return productService.save(new Product(null, "Allotted item", null, new BigDecimal("1.00"), stock,
+                null, null, null)).getId();
+    }
+
+    private ProductService node(Duration reclaimGrace) {
+        ProductService node = new ProductService(productRepository, changeNotifier, ledger, new SimpleMeterRegistry(),
+                allotments(reclaimGrace), transactionManager);
+        node.init();
+        return node;
+    }
+
+    private StockAllotments allotments(Duration reclaimGrace) {
+        StockAllotments allotments = new StockAllotments(jdbcTemplate, transactionManager, changeNotifier,
+                new SimpleMeterRegistry(), true, SLICE, LEASE_TTL, reclaimGrace, Duration.ofMinutes(10));
+        nodes.add(allotments);
+        return allotments;
+    }
+
+    private int stockOf(Long productId) {
+        return jdbcTemplate.queryForObject("SELECT stock_quantity FROM products WHERE id = ?", Integer.class, productId);
+    }
+
+    private int sold(Long productId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(quantity), 0) FROM processed_order_events WHERE product_id = ?",
+                Integer.class, productId);
+    }
+
+    private int openLeases(Long productId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM stock_leases WHERE product_id = ? AND state <> 'CLOSED'", Integer.class, productId);
+    }
+
+    private UUID leaseOf(Long orderId) {
+        return jdbcTemplate.queryForObject("SELECT lease_id FROM processed_order_events WHERE order_id = ?",
+                UUID.class, orderId);
+    }
+}
@@ -0,0 +1,92 @@
+package com.kamruddin.modulith.order;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kamruddin.modulith.inventory.Product;
+import com.kamruddin.modulith.inventory.ProductService;
+
+@SpringBootTest(properties = "spring.modulith.events.externalization.enabled=false")
+@AutoConfigureMockMvc
+class OrderControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ProductService productService;
+
+    @Test
+    void batchRejectsLinesForUnknownProductsAndPlacesTheRest() throws Exception {
+        Product product = productService.save(new Product(null, "Batch item", null, new BigDecimal("1.00"), 100,
+                null, null, null));
+        long unknown = product.getId() + 1_000_000;
+        List<Order> lines = List.of(
+                new Order(null, product.getId(), 2, null, null),
+                new Order(null, unknown, 1, null, null),
+                new Order(null, product.getId(), null, null, null),
+                new Order(null, product.getId(), 3, null, null));
+
+        byte[] body = mockMvc.perform(post("/api/orders/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsBytes(lines)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        OrderLineResult[] results = objectMapper.readValue(body, OrderLineResult[].class);
+
+        assertThat(Arrays.stream(results).map(OrderLineResult::status).toList())
+                .containsExactly("PLACED", "REJECTED", "REJECTED", "PLACED");
+        assertThat(results[1].errors()).containsExactly("Product " + unknown + " not found");
+        assertThat(results[2].errors()).containsExactly("Quantity is required");
+        assertThat(results[0].orderId()).isNotNull();
+        assertThat(results[3].orderId()).isNotNull();
+    }
+
+    @Test
+    void listIsPagedOnlyWhenAfterOrLimitIsGiven() throws Exception {
+        Product product = productService.save(new Product(null, "Listed item", null, new BigDecimal("1.00"), 1000,
+                null, null, null));
+        List<Order> lines = new ArrayList<>();
+        for (int i = 0; i <= OrderQuery.DEFAULT_LIMIT; i++) {
+            lines.add(new Order(null, product.getId(), 1, null, null));
+        }
+        mockMvc.perform(post("/api/orders/batch").contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsBytes(lines)))
+                .andExpect(status().isOk());
+
+        MockHttpServletResponse all = list("/api/orders?productId=" + product.getId());
+        assertThat(objectMapper.readValue(all.getContentAsByteArray(), Order[].class))
+                .hasSize(OrderQuery.DEFAULT_LIMIT + 1);
+        assertThat(all.getHeader(OrderController.NEXT_CURSOR_HEADER)).isNull();
+
+        MockHttpServletResponse page = list("/api/orders?productId=" + product.getId()
+                + "&limit=" + OrderQuery.DEFAULT_LIMIT);
+        assertThat(objectMapper.readValue(page.getContentAsByteArray(), Order[].class))
+                .hasSize(OrderQuery.DEFAULT_LIMIT);
+        MockHttpServletResponse rest = list("/api/orders?productId=" + product.getId()
+                + "&after=" + page.getHeader(OrderController.NEXT_CURSOR_HEADER));
+        assertThat(objectMapper.readValue(rest.getContentAsByteArray(), Order[].class)).hasSize(1);
+    }
+
+    private MockHttpServletResponse list(String uri) throws Exception {
+        return mockMvc.perform(get(uri)).andExpect(status().isOk()).andReturn().getResponse();
+    }
+}
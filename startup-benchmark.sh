@@ -0,0 +1,97 @@
+#!/bin/bash
+set -e
+
+# Startup benchmark: time until /actuator/health/readiness answers UP and the resident set
+# size at that moment, for
+#   baseline  fat jar, schema scripts before the context refresh
+#   cds       unpacked jar with a CDS archive, fast profile
+#   aot-cds   the same, built with -Pfast-startup and run with Spring AOT
+# Needs PostgreSQL and RabbitMQ from compose.yaml (docker compose up -d postgres rabbitmq).
+#
+#   ./startup-benchmark.sh [runs]
+
+RUNS=${1:-5}
+PORT=${PORT:-8080}
+# Outside target/, the builds below clean it
+WORK=${TMPDIR:-/tmp}/modulith-startup-benchmark
+READY_URL="http://localhost:${PORT}/actuator/health/readiness"
+COMMON_ARGS="--server.port=${PORT} --management.endpoint.health.probes.enabled=true"
+
+rm -rf ${WORK}
+mkdir -p ${WORK}
+
+echo "Building baseline jar..."
+./mvnw -q clean package -DskipTests
+cp target/modulith-*.jar ${WORK}/baseline.jar
+
+echo "Building AOT jar..."
+./mvnw -q clean package -DskipTests -Pfast-startup
+cp target/modulith-*.jar ${WORK}/aot.jar
+
+# Unpack and record a CDS archive with a training run that exits after the context refresh.
+# The archive is only valid for the jar path it was recorded with.
+prepare_cds() {
+  local jar=$1 dir=$2 aot=$3
+  java -Djarmode=tools -jar ${WORK}/${jar}.jar extract --destination ${WORK}/${dir}
+  java -XX:ArchiveClassesAtExit=${WORK}/${dir}/app.jsa -Dspring.context.exit=onRefresh \
+    -Dspring.aot.enabled=${aot} -jar ${WORK}/${dir}/${jar}.jar --spring.profiles.active=fast \
+    ${COMMON_ARGS} > ${WORK}/${dir}-training.log 2>&1 || {
+      echo "Training run of ${dir} failed, see ${WORK}/${dir}-training.log"
+      exit 1
+    }
+}
+
+echo "Recording CDS archives..."
+prepare_cds baseline cds false
+prepare_cds aot aot-cds true
+
+now_ms() {
+  date +%s%3N
+}
+
+# Start the application, wait until it is ready, print "<ms to ready> <RSS in MB>" and stop it
+measure() {
+  local log=$1
+  shift
+  local started
+  started=$(now_ms)
+  "$@" ${COMMON_ARGS} > ${log} 2>&1 &
+  local pid=$!
+  until curl -sf ${READY_URL} > /dev/null 2>&1; do
+    if ! kill -0 ${pid} 2>/dev/null; then
+      echo "Application exited before it was ready, see ${log}" >&2
+      exit 1
+    fi
+    sleep 0.05
+  done
+  local ready
+  ready=$(now_ms)
+  local rss
+  rss=$(ps -o rss= -p ${pid})
+  kill ${pid}
+  wait ${pid} 2>/dev/null || true
+  echo "$((ready - started)) $((rss / 1024))"
+}
+
+run_variant() {
+  local name=$1
+  shift
+  local total_ms=0 total_rss=0 result ms rss
+  for run in $(seq 1 ${RUNS}); do
+    result=$(measure ${WORK}/${name}-${run}.log "$@")
+    read -r ms rss <<< "${result}"
+    total_ms=$((total_ms + ms))
+    total_rss=$((total_rss + rss))
+  done
+  printf "%-10s %12d %10d\n" ${name} $((total_ms / RUNS)) $((total_rss / RUNS))
+}
+
+echo
+printf "%-10s %12s %10s\n" variant "ready (ms)" "RSS (MB)"
+run_variant baseline java -jar ${WORK}/baseline.jar
+run_variant cds java -XX:SharedArchiveFile=${WORK}/cds/app.jsa -jar ${WORK}/cds/baseline.jar \
+  --spring.profiles.active=fast
+run_variant aot-cds java -XX:SharedArchiveFile=${WORK}/aot-cds/app.jsa -Dspring.aot.enabled=true \
+  -jar ${WORK}/aot-cds/aot.jar --spring.profiles.active=fast
+echo
+echo "Averages of ${RUNS} runs, logs in ${WORK}"